@@ -0,0 +1,220 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** The operations of gitlet that return results instead of printing them.
+ *
+ *  Each one takes the repository lock, or runs in a read snapshot, itself,
+ *  and fails by throwing GitletException. Main prints what they return;
+ *  GitletRepository calls them (reflectively, in a repository's own class
+ *  loader), so they take and return only JDK and shared types. Commands
+ *  that have no structured result yet are reached through run, which
+ *  collects what they print.
+ *
+ *  @author Ting-Che Lin
+ */
+class Api {
+
+    /** Runs the command in ARGS, as the command line would, and returns
+     *  what it printed. */
+    static String run(String[] args) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Output.capture(out, () -> Main.execute(args));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Releases what this copy of the package holds: the repository lock,
+     *  if a failed call left it held, and its shutdown hook. */
+    static void close() {
+        RepoLock.close();
+    }
+
+    /** Runs init. */
+    static void init() {
+        Main.execute(new String[] {"init"});
+    }
+
+    /** Stages FILENAME. */
+    static void add(String fileName) {
+        write(() -> {
+            if (!join(CWD, fileName).exists()) {
+                throw error("File does not exist.");
+            }
+            Stage.add(fileName);
+            return null;
+        });
+    }
+
+    /** Unstages FILENAME, or stages its removal. */
+    static void remove(String fileName) {
+        write(() -> {
+            Stage.remove(fileName);
+            return null;
+        });
+    }
+
+    /** Commits the stage with MESSAGE and returns the new commit's id. */
+    static String commit(String message) {
+        return write(() -> {
+            Stage stage = Stage.load();
+            if (stage.getFiles().isEmpty() && stage.getRemovals().isEmpty()) {
+                throw error("No changes added to the commit.");
+            }
+            if (message.isEmpty()) {
+                throw error("Please enter a commit message.");
+            }
+            Journal.begin();
+            Commit commit = new Commit(message, getHeadCommit(), stage);
+            writeCommit(commit);
+            stage.clearStage();
+            stage.clearRemovals();
+            Stage.save(stage);
+            Journal.commit();
+            return commit.getId();
+        });
+    }
+
+    /** Creates BRANCH at the head commit. */
+    static void branch(String branch) {
+        write(() -> {
+            createBranch(branch);
+            return null;
+        });
+    }
+
+    /** Checks out BRANCH. */
+    static void checkout(String branch) {
+        write(() -> {
+            switchBranch(branch);
+            return null;
+        });
+    }
+
+    /** Returns what status shows. */
+    static GitletRepository.Status status() {
+        return read(() -> {
+            String head = getHeadCommit();
+            Stage stage = Stage.load();
+            TreeMap<String, String> working = Watcher.workingTree();
+            return new GitletRepository.Status(getCurrentBranch(),
+                new ArrayList<>(Refs.all().keySet()),
+                new ArrayList<>(stage.getFiles().keySet()),
+                new ArrayList<>(stage.getRemovals().keySet()),
+                modifiedFiles(head, working), untrackedFiles(head, working));
+        });
+    }
+
+    /** Returns the head commit id. */
+    static String head() {
+        return read(Repository::getHeadCommit);
+    }
+
+    /** Returns the current branch. */
+    static String currentBranch() {
+        return read(Repository::getCurrentBranch);
+    }
+
+    /** Returns every branch and the commit it points to. */
+    static Map<String, String> branches() {
+        return read(() -> new TreeMap<>(Refs.all()));
+    }
+
+    /** Returns the files of the commit whose id starts with PREFIX, mapped
+     *  to their blob hashes. */
+    static Map<String, String> files(String prefix) {
+        return read(() -> new TreeMap<>(
+            ObjectStore.readCommit(resolve(prefix)).getFileList()));
+    }
+
+    /** Returns the contents of the blob HASH. */
+    static byte[] blob(String hash) {
+        return read(() -> ObjectStore.readBlob(hash));
+    }
+
+    /** Returns the first-parent history of the commit whose id starts with
+     *  PREFIX (the head commit if PREFIX is empty), newest first, as log
+     *  shows it. */
+    static List<GitletRepository.LogEntry> log(String prefix) {
+        return read(() -> {
+            List<GitletRepository.LogEntry> result = new ArrayList<>();
+            String id = prefix.isEmpty() ? getHeadCommit() : resolve(prefix);
+            while (id != null) {
+                Commit c = ObjectStore.readCommit(id);
+                result.add(c.logEntry());
+                id = Shallow.isBoundary(id) ? null : c.getParent();
+            }
+            return result;
+        });
+    }
+
+    /** Returns every commit, as global-log shows them. */
+    static List<GitletRepository.LogEntry> globalLog() {
+        return read(() -> {
+            List<GitletRepository.LogEntry> result = new ArrayList<>();
+            for (String id : plainFilenamesIn(COMMIT_DIR)) {
+                result.add(ObjectStore.readCommit(id).logEntry());
+            }
+            return result;
+        });
+    }
+
+    /** Returns the ids of the commits with message MESSAGE. */
+    static List<String> find(String message) {
+        return read(() -> {
+            List<String> result = new ArrayList<>();
+            for (String id : plainFilenamesIn(COMMIT_DIR)) {
+                if (ObjectStore.readCommit(id).getMessage().equals(message)) {
+                    result.add(id);
+                }
+            }
+            return result;
+        });
+    }
+
+    /** Returns the full id of the commit starting with PREFIX, failing if
+     *  there is none. */
+    private static String resolve(String prefix) {
+        String id = resolveCommitId(prefix);
+        if (id == null) {
+            throw error("No commit with that id exists.");
+        }
+        return id;
+    }
+
+    /** Returns the result of QUERY, run against a consistent snapshot. */
+    static <T> T read(Supplier<T> query) {
+        checkInitialized();
+        AtomicReference<T> result = new AtomicReference<>();
+        RepoLock.readSnapshot(() -> result.set(query.get()));
+        return result.get();
+    }
+
+    /** Returns the result of UPDATE, run holding the repository lock. The
+     *  writes of a transaction it leaves open are dropped. */
+    static <T> T write(Supplier<T> update) {
+        checkInitialized();
+        RepoLock.acquire();
+        try {
+            return update.get();
+        } finally {
+            Journal.abort();
+            RepoLock.release();
+        }
+    }
+
+    /** Fails unless CWD is in a repository. */
+    private static void checkInitialized() {
+        if (!GITLET_DIR.exists()) {
+            throw error("Not in an initialized Gitlet directory");
+        }
+    }
+}
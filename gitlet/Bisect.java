@@ -0,0 +1,335 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** The bisect command: finds the commit that introduced a change by
+ *  binary search over the history between a good and a bad commit.
+ *
+ *  The commits still suspect are those the bad commit can reach and no
+ *  good commit can, found as reachability bitmaps, so merges (both
+ *  parents) are followed like any other edge. The next commit to test is
+ *  the suspect whose own suspect ancestors come closest to half of them:
+ *  whichever way it is marked, about half the suspects are ruled out.
+ *  Those counts take one pass over the suspects plus a walk per merge. While
+ *  bisecting, the worktree is on the branch BISECT_HEAD, which moves to
+ *  each commit to test; only the files whose blob differs from the
+ *  previous commit are rewritten, so a step costs as much as the change
+ *  between two commits rather than a whole checkout. bisect run marks
+ *  commits by the exit status of a script until the first bad commit is
+ *  found, releasing the repository lock while the script runs. The state
+ *  lives in the worktree's bisect file until bisect reset.
+ *
+ *  @author Ting-Che Lin
+ */
+class Bisect implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The bisect state of this worktree. */
+    static final File BISECT = join(WORKTREE_DIR, "bisect");
+
+    /** The branch checked out while bisecting. */
+    static final String BRANCH = "BISECT_HEAD";
+
+    /** The exit status with which a bisect run script skips a commit. */
+    private static final int SKIP_STATUS = 125;
+
+    /** The branch checked out before bisect start. */
+    private String branch;
+    /** The bad commit, or null if none is marked yet. */
+    private String bad;
+    /** The commits marked good, and those skipped. */
+    private TreeSet<String> good = new TreeSet<>();
+    private TreeSet<String> skipped = new TreeSet<>();
+    /** The first bad commit, once found. */
+    private String found;
+
+    /** Runs bisect start [BAD [GOOD...]]. */
+    static void start(String[] commits) {
+        if (BISECT.exists()) {
+            throw error("A bisect is already in progress.");
+        }
+        if (hasUncomittedChanges()) {
+            throw error("You have uncommitted changes.");
+        }
+        if (Refs.exists(BRANCH)) {
+            throw error("A branch named " + BRANCH + " already exists.");
+        }
+        Bisect state = new Bisect();
+        if (commits.length > 0) {
+            state.bad = resolve(commits[0]);
+        }
+        for (int i = 1; i < commits.length; i += 1) {
+            state.good.add(resolve(commits[i]));
+        }
+        state.branch = getCurrentBranch();
+        setBranch(BRANCH, getHeadCommit());
+        setCurrentBranch(BRANCH);
+        state.next();
+    }
+
+    /** Runs bisect good [COMMIT], bisect bad [COMMIT] or bisect skip
+     *  [COMMIT], as TERM says; COMMIT is the head commit if null. Commits
+     *  may be given as ids, id prefixes or branch names. */
+    static void mark(String term, String commit) {
+        Bisect state = load();
+        String id = commit == null ? getHeadCommit() : resolve(commit);
+        state.record(term, id);
+        state.next();
+    }
+
+    /** Runs bisect run SCRIPT...: runs SCRIPT at each commit to test and
+     *  marks the commit good if it exits with 0, skips it with 125 and
+     *  marks it bad with any other status below 128, until the first bad
+     *  commit is found. */
+    static void run(String[] script) {
+        Bisect state = load();
+        if (state.bad == null || state.good.isEmpty()) {
+            throw error("Mark a good and a bad commit first.");
+        }
+        while (state.found == null) {
+            String id = getHeadCommit();
+            int status = runScript(script);
+            state = load();
+            if (!id.equals(getHeadCommit())) {
+                throw error("The bisect run script moved " + BRANCH + ".");
+            }
+            if (status == 0) {
+                state.record("good", id);
+            } else if (status == SKIP_STATUS) {
+                state.record("skip", id);
+            } else if (status > 0 && status < 128) {
+                state.record("bad", id);
+            } else {
+                throw new GitletException("The bisect run script exited with "
+                                          + status + "; stopping.");
+            }
+            if (!state.next()) {
+                return;
+            }
+        }
+    }
+
+    /** Runs bisect reset: goes back to the branch checked out before bisect
+     *  start, touching only the files that differ. */
+    static void reset() {
+        Bisect state = load();
+        updateWorkingFiles(getHeadCommit(), Refs.get(state.branch));
+        setCurrentBranch(state.branch);
+        Refs.delete(BRANCH);
+        BISECT.delete();
+    }
+
+    /** Returns the commits bisect refers to, so that gc keeps them. */
+    static List<String> commits() {
+        List<String> result = new ArrayList<>();
+        if (BISECT.exists()) {
+            Bisect state = load();
+            if (state.bad != null) {
+                result.add(state.bad);
+            }
+            result.addAll(state.good);
+            result.addAll(state.skipped);
+        }
+        return result;
+    }
+
+    /** Records that commit ID is good or bad, or is skipped, as TERM
+     *  says. */
+    private void record(String term, String id) {
+        switch (term) {
+            case "good":
+                good.add(id);
+                break;
+            case "bad":
+                bad = id;
+                break;
+            case "skip":
+                skipped.add(id);
+                break;
+            default:
+                throw error("No command with that name exists.");
+        }
+    }
+
+    /** Saves this state and, if both a good and a bad commit are known,
+     *  checks out the next commit to test or reports the first bad commit.
+     *  Returns true if there is a commit left to test. */
+    private boolean next() {
+        writeObject(BISECT, this);
+        if (bad == null || good.isEmpty()) {
+            Output.out().println("Waiting for both good and bad commits.");
+            return false;
+        }
+        if (found != null) {
+            reportFound();
+            return false;
+        }
+        Bitmap cleared = Reachability.reach(good);
+        Bitmap suspects = new Bitmap();
+        Reachability.reach(bad).forEach(p -> {
+            if (!cleared.contains(p)) {
+                suspects.add(p);
+            }
+        });
+        int total = suspects.cardinality();
+        if (total == 0) {
+            throw error("The bad commit is an ancestor of a good commit.");
+        }
+        if (total == 1) {
+            found = bad;
+            writeObject(BISECT, this);
+            reportFound();
+            return false;
+        }
+
+        int badPosition = Reachability.position(bad);
+        HashMap<Integer, Integer> counts = ancestorCounts(suspects);
+        String best = null;
+        int bestScore = -1;
+        int bestReach = 0;
+        for (int p : positions(suspects)) {
+            String id = CommitGraph.at(p).id;
+            if (p == badPosition || skipped.contains(id)) {
+                continue;
+            }
+            int reach = counts.get(p);
+            int score = Math.min(reach, total - reach);
+            if (score > bestScore) {
+                best = id;
+                bestScore = score;
+                bestReach = reach;
+            }
+        }
+        if (best == null) {
+            Output.out().println("There are only skipped commits left to test.");
+            Output.out().println("The first bad commit could be any of:");
+            for (int p : positions(suspects)) {
+                Output.out().println(CommitGraph.at(p).id);
+            }
+            return false;
+        }
+
+        int left = Math.max(bestReach - 1, total - bestReach - 1);
+        Output.out().printf("Bisecting: %d commits left to test after this "
+                          + "(roughly %d steps)%n", left,
+                          Integer.SIZE - Integer.numberOfLeadingZeros(left));
+        updateWorkingFiles(getHeadCommit(), best);
+        setBranch(BRANCH, best);
+        Output.out().println("[" + best + "] " + ObjectStore.readCommit(best).getMessage());
+        return true;
+    }
+
+    /** Returns, by position, how many of SUSPECTS each of them can reach,
+     *  itself included. A suspect with one suspect parent reaches one more
+     *  than its parent, so only merges (two suspect parents) need a walk of
+     *  their own; the rest is one pass, parents first. */
+    private static HashMap<Integer, Integer> ancestorCounts(Bitmap suspects) {
+        HashMap<Integer, Integer> counts = new HashMap<>();
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        for (int start : positions(suspects)) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                int p = stack.peek();
+                if (counts.containsKey(p)) {
+                    stack.pop();
+                    continue;
+                }
+                String id = CommitGraph.at(p).id;
+                List<Integer> parents = new ArrayList<>(2);
+                for (String parent : CommitGraph.parents(id)) {
+                    int q = Reachability.position(parent);
+                    if (suspects.contains(q)) {
+                        parents.add(q);
+                    }
+                }
+                if (parents.size() > 1) {
+                    counts.put(p, Reachability.reach(id).and(suspects).cardinality());
+                } else if (parents.isEmpty()) {
+                    counts.put(p, 1);
+                } else if (counts.containsKey(parents.get(0))) {
+                    counts.put(p, counts.get(parents.get(0)) + 1);
+                } else {
+                    stack.push(parents.get(0));
+                    continue;
+                }
+                stack.pop();
+            }
+        }
+        return counts;
+    }
+
+    /** Prints the first bad commit. */
+    private void reportFound() {
+        Output.out().println(found + " is the first bad commit");
+        Commit.printCommit(ObjectStore.readCommit(found));
+    }
+
+    /** Returns the values of BITS, in increasing order. */
+    private static List<Integer> positions(Bitmap bits) {
+        List<Integer> result = new ArrayList<>();
+        bits.forEach(result::add);
+        return result;
+    }
+
+    /** Runs SCRIPT in the working directory, with the repository lock
+     *  released so that it can use gitlet, and returns its exit status.
+     *  The transaction so far is committed first, and a new one begun
+     *  after. */
+    private static int runScript(String[] script) {
+        String[] command = Arrays.copyOf(script, script.length);
+        File local = join(CWD, command[0]);
+        if (local.isFile()) {
+            command[0] = local.getPath();
+        }
+        Journal.commit();
+        RepoLock.release();
+        int status;
+        try {
+            status = Output.run(new ProcessBuilder(command).directory(CWD));
+        } catch (IOException excp) {
+            throw error("Could not run %s: %s", script[0], excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted while running %s.", script[0]);
+        } finally {
+            RepoLock.acquire();
+            Journal.begin();
+        }
+        if (!BISECT.exists()) {
+            throw error("The bisect run script ended the bisect.");
+        }
+        return status;
+    }
+
+    /** Returns the full id of the commit starting with PREFIX, or at the
+     *  head of the branch PREFIX, failing if there is none. */
+    private static String resolve(String prefix) {
+        if (Refs.exists(prefix)) {
+            return Refs.get(prefix);
+        }
+        String id = resolveCommitId(prefix);
+        if (id == null) {
+            throw error("No commit with that id exists.");
+        }
+        return id;
+    }
+
+    /** Returns the bisect state, failing if no bisect is in progress. */
+    private static Bisect load() {
+        if (!BISECT.exists()) {
+            throw error("Not bisecting.");
+        }
+        return readObject(BISECT, Bisect.class);
+    }
+}
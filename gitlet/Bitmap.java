@@ -0,0 +1,298 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/** A compressed set of non-negative ints, laid out like a Roaring bitmap.
+ *
+ *  The high 16 bits of a value pick a container and the low 16 bits are
+ *  stored in it. A container holding at most 4096 values is a sorted char
+ *  array; a fuller one is a plain 65536-bit bitmap, which is never larger
+ *  than the array would be. Sets of nearby commit positions, which is what
+ *  reachability produces, therefore cost about one bit per commit, and
+ *  OR/AND work a container at a time.
+ *
+ *  @author Ting-Che Lin
+ */
+class Bitmap {
+
+    /** Largest array container; anything bigger is stored as bits. */
+    private static final int ARRAY_MAX = 4096;
+
+    /** Words in a bits container. */
+    private static final int WORDS = 1 << 10;
+
+    /** The containers of this set, keyed by the high 16 bits. */
+    private final TreeMap<Integer, Container> containers = new TreeMap<>();
+
+    /** The low 16 bits of the values sharing one key. Exactly one of
+     *  ARRAY and BITS is in use. */
+    private static class Container {
+        char[] array;
+        int size;
+        long[] bits;
+
+        static Container ofArray(char[] array, int size) {
+            Container c = new Container();
+            c.array = array;
+            c.size = size;
+            return c;
+        }
+
+        static Container ofBits(long[] bits) {
+            Container c = new Container();
+            c.bits = bits;
+            for (long word : bits) {
+                c.size += Long.bitCount(word);
+            }
+            return c;
+        }
+
+        boolean contains(char low) {
+            if (bits != null) {
+                return (bits[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(array, 0, size, low) >= 0;
+        }
+
+        void add(char low) {
+            if (bits != null) {
+                long mask = 1L << low;
+                if ((bits[low >>> 6] & mask) == 0) {
+                    bits[low >>> 6] |= mask;
+                    size += 1;
+                }
+                return;
+            }
+            int at = Arrays.binarySearch(array, 0, size, low);
+            if (at >= 0) {
+                return;
+            }
+            if (size == ARRAY_MAX) {
+                toBits();
+                add(low);
+                return;
+            }
+            at = -at - 1;
+            if (size == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_MAX, size * 2 + 4));
+            }
+            System.arraycopy(array, at, array, at + 1, size - at);
+            array[at] = low;
+            size += 1;
+        }
+
+        void toBits() {
+            bits = new long[WORDS];
+            for (int i = 0; i < size; i += 1) {
+                bits[array[i] >>> 6] |= 1L << array[i];
+            }
+            array = null;
+        }
+
+        Container copy() {
+            return bits != null ? ofBits(bits.clone())
+                : ofArray(Arrays.copyOf(array, size), size);
+        }
+
+        long[] asBits() {
+            if (bits != null) {
+                return bits;
+            }
+            long[] result = new long[WORDS];
+            for (int i = 0; i < size; i += 1) {
+                result[array[i] >>> 6] |= 1L << array[i];
+            }
+            return result;
+        }
+
+        /** Returns the smallest container holding BITS. */
+        static Container compact(long[] bits) {
+            Container c = ofBits(bits);
+            if (c.size > ARRAY_MAX) {
+                return c;
+            }
+            char[] array = new char[c.size];
+            int n = 0;
+            for (int w = 0; w < WORDS; w += 1) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    array[n] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+                    n += 1;
+                }
+            }
+            return ofArray(array, n);
+        }
+
+        Container or(Container other) {
+            if (bits == null && other.bits == null
+                && size + other.size <= ARRAY_MAX) {
+                char[] merged = new char[size + other.size];
+                int i = 0;
+                int j = 0;
+                int n = 0;
+                while (i < size || j < other.size) {
+                    char next;
+                    if (j == other.size || (i < size && array[i] < other.array[j])) {
+                        next = array[i];
+                        i += 1;
+                    } else if (i == size || other.array[j] < array[i]) {
+                        next = other.array[j];
+                        j += 1;
+                    } else {
+                        next = array[i];
+                        i += 1;
+                        j += 1;
+                    }
+                    merged[n] = next;
+                    n += 1;
+                }
+                return ofArray(merged, n);
+            }
+            long[] result = asBits().clone();
+            long[] theirs = other.asBits();
+            for (int w = 0; w < WORDS; w += 1) {
+                result[w] |= theirs[w];
+            }
+            return ofBits(result);
+        }
+
+        Container and(Container other) {
+            if (bits != null && other.bits != null) {
+                long[] result = new long[WORDS];
+                for (int w = 0; w < WORDS; w += 1) {
+                    result[w] = bits[w] & other.bits[w];
+                }
+                return compact(result);
+            }
+            Container small = bits == null ? this : other;
+            Container large = small == this ? other : this;
+            char[] result = new char[small.size];
+            int n = 0;
+            for (int i = 0; i < small.size; i += 1) {
+                if (large.contains(small.array[i])) {
+                    result[n] = small.array[i];
+                    n += 1;
+                }
+            }
+            return ofArray(result, n);
+        }
+
+        void forEach(int high, IntConsumer action) {
+            if (bits == null) {
+                for (int i = 0; i < size; i += 1) {
+                    action.accept(high | array[i]);
+                }
+                return;
+            }
+            for (int w = 0; w < WORDS; w += 1) {
+                for (long word = bits[w]; word != 0; word &= word - 1) {
+                    action.accept(high | (w * 64 + Long.numberOfTrailingZeros(word)));
+                }
+            }
+        }
+    }
+
+    /** Adds VALUE, which must not be negative. */
+    void add(int value) {
+        Container c = containers.get(value >>> 16);
+        if (c == null) {
+            c = Container.ofArray(new char[4], 0);
+            containers.put(value >>> 16, c);
+        }
+        c.add((char) value);
+    }
+
+    /** Returns true if VALUE is in this set. */
+    boolean contains(int value) {
+        Container c = containers.get(value >>> 16);
+        return c != null && c.contains((char) value);
+    }
+
+    /** Adds every value of OTHER to this set. */
+    void or(Bitmap other) {
+        for (Map.Entry<Integer, Container> entry : other.containers.entrySet()) {
+            Container mine = containers.get(entry.getKey());
+            containers.put(entry.getKey(), mine == null
+                           ? entry.getValue().copy() : mine.or(entry.getValue()));
+        }
+    }
+
+    /** Returns the values in both this set and OTHER. */
+    Bitmap and(Bitmap other) {
+        Bitmap result = new Bitmap();
+        for (Map.Entry<Integer, Container> entry : containers.entrySet()) {
+            Container theirs = other.containers.get(entry.getKey());
+            if (theirs != null) {
+                Container both = entry.getValue().and(theirs);
+                if (both.size > 0) {
+                    result.containers.put(entry.getKey(), both);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of values in this set. */
+    int cardinality() {
+        int result = 0;
+        for (Container c : containers.values()) {
+            result += c.size;
+        }
+        return result;
+    }
+
+    /** Calls ACTION on every value, in increasing order. */
+    void forEach(IntConsumer action) {
+        for (Map.Entry<Integer, Container> entry : containers.entrySet()) {
+            entry.getValue().forEach(entry.getKey() << 16, action);
+        }
+    }
+
+    /** Writes this set to OUT. */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(containers.size());
+        for (Map.Entry<Integer, Container> entry : containers.entrySet()) {
+            Container c = entry.getValue();
+            out.writeChar(entry.getKey());
+            out.writeBoolean(c.bits != null);
+            if (c.bits != null) {
+                for (long word : c.bits) {
+                    out.writeLong(word);
+                }
+            } else {
+                out.writeChar(c.size);
+                for (int i = 0; i < c.size; i += 1) {
+                    out.writeChar(c.array[i]);
+                }
+            }
+        }
+    }
+
+    /** Reads a set written by write from IN. */
+    static Bitmap read(DataInputStream in) throws IOException {
+        Bitmap result = new Bitmap();
+        int count = in.readInt();
+        for (int k = 0; k < count; k += 1) {
+            int key = in.readChar();
+            if (in.readBoolean()) {
+                long[] bits = new long[WORDS];
+                for (int w = 0; w < WORDS; w += 1) {
+                    bits[w] = in.readLong();
+                }
+                result.containers.put(key, Container.ofBits(bits));
+            } else {
+                char[] array = new char[in.readChar()];
+                for (int i = 0; i < array.length; i += 1) {
+                    array[i] = in.readChar();
+                }
+                result.containers.put(key, Container.ofArray(array, array.length));
+            }
+        }
+        return result;
+    }
+}
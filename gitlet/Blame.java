@@ -0,0 +1,162 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** The blame command: which commit last changed each line of a file.
+ *
+ *  Starting from HEAD, the walk follows first parents through the commit
+ *  graph and stops only at commits the PathIndex says changed the file.
+ *  Each such commit is diffed against its parent's version: unchanged lines
+ *  keep the parent's origins, the rest belong to the commit (or, for a
+ *  merge, to the second parent's blame where that version already had the
+ *  line). The origins computed at each change point are cached in
+ *  .gitlet/blame_cache/<SHA-1 of commit id and file name>, one commit id
+ *  per line, so a later blame stops walking at the first change point it
+ *  has seen before. The origins of a file as of a commit depend only on
+ *  that commit's history, so a cached entry never goes stale; the same
+ *  content in another commit (as after a revert) is blamed afresh.
+ *
+ *  @author Ting-Che Lin
+ */
+class Blame {
+
+    /** The cache directory. */
+    static final File CACHE_DIR = join(GITLET_DIR, "blame_cache");
+
+    /** Runs blame FILENAME against HEAD. */
+    static void blame(String fileName) {
+        Commit head = ObjectStore.readCommit(getHeadCommit());
+        String hash = head.getFileList().get(fileName);
+        if (hash == null) {
+            throw error("File does not exist in that commit.");
+        }
+        String[] lines = Diff.splitLines(ObjectStore.readBlob(hash));
+        String[] origins = origins(head.getId(), fileName);
+        HashMap<String, Commit> commits = new HashMap<>();
+        int width = Integer.toString(lines.length).length();
+        for (int i = 0; i < lines.length; i += 1) {
+            Commit c = commits.computeIfAbsent(origins[i], ObjectStore::readCommit);
+            String line = lines[i].endsWith("\n")
+                ? lines[i].substring(0, lines[i].length() - 1) : lines[i];
+            Output.out().printf("%s (%s %" + width + "d) %s%n",
+                              c.getId().substring(0, 8), c.getTimestamp(),
+                              i + 1, line);
+        }
+    }
+
+    /** Returns the origin commit of each line of file FILENAME as of commit
+     *  START, which must contain the file. */
+    static String[] origins(String start, String fileName) {
+        Set<String> changes = PathIndex.changes(fileName);
+        // Change points from newest to oldest, each with its version.
+        List<Commit> points = new ArrayList<>();
+        String[] base = null;
+        String baseHash = null;
+        String id = start;
+        while (true) {
+            // a shallow boundary commit has no parents here, and counts as
+            // adding the file
+            List<String> parents = CommitGraph.parents(id);
+            while (!parents.isEmpty() && !PathIndex.changed(id, fileName, changes)) {
+                id = parents.get(0);
+                parents = CommitGraph.parents(id);
+            }
+            Commit c = ObjectStore.readCommit(id);
+            String[] cached = readCache(id, fileName);
+            if (cached != null) {
+                base = cached;
+                baseHash = c.getFileList().get(fileName);
+                break;
+            }
+            points.add(c);
+            if (parents.isEmpty()) {
+                break;
+            }
+            Commit parent = ObjectStore.readCommit(parents.get(0));
+            if (!parent.getFileList().containsKey(fileName)) {
+                break;
+            }
+            id = parent.getId();
+        }
+
+        String[] result = base;
+        for (int p = points.size() - 1; p >= 0; p -= 1) {
+            Commit c = points.get(p);
+            String hash = c.getFileList().get(fileName);
+            String[] lines = Diff.splitLines(ObjectStore.readBlob(hash));
+            String[] origins = new String[lines.length];
+            String older = p + 1 < points.size()
+                ? points.get(p + 1).getFileList().get(fileName) : baseHash;
+            if (older != null) {
+                inherit(lines, origins, older, result);
+            }
+            if (c.getMergeprt2() != null && !Shallow.isBoundary(c.getId())) {
+                String other = ObjectStore.readCommit(c.getMergeprt2())
+                    .getFileList().get(fileName);
+                if (other != null) {
+                    inherit(lines, origins, other,
+                            origins(c.getMergeprt2(), fileName));
+                }
+            }
+            for (int i = 0; i < origins.length; i += 1) {
+                if (origins[i] == null) {
+                    origins[i] = c.getId();
+                }
+            }
+            writeCache(c.getId(), fileName, origins);
+            result = origins;
+        }
+        return result;
+    }
+
+    /** Fills in the unset ORIGINS of LINES that are unchanged from blob
+     *  OLDER, whose lines have origins OLDERORIGINS. */
+    private static void inherit(String[] lines, String[] origins, String older,
+                                String[] olderOrigins) {
+        String[] olderLines = Diff.splitLines(ObjectStore.readBlob(older));
+        Diff.Edits edits = Diff.compare(olderLines, lines);
+        int i = 0;
+        int j = 0;
+        while (i < olderLines.length || j < lines.length) {
+            if (i < olderLines.length && edits.deleted[i]) {
+                i += 1;
+            } else if (j < lines.length && edits.inserted[j]) {
+                j += 1;
+            } else {
+                if (origins[j] == null) {
+                    origins[j] = olderOrigins[i];
+                }
+                i += 1;
+                j += 1;
+            }
+        }
+    }
+
+    /** Returns the cached origins of the lines of file FILENAME as of
+     *  commit ID, or null. */
+    private static String[] readCache(String id, String fileName) {
+        File cached = join(CACHE_DIR, sha1(id, fileName));
+        if (!cached.exists()) {
+            return null;
+        }
+        String text = readContentsAsString(cached);
+        return text.isEmpty() ? new String[0] : text.split("\n");
+    }
+
+    /** Caches ORIGINS as the line origins of file FILENAME as of commit
+     *  ID. */
+    private static void writeCache(String id, String fileName, String[] origins) {
+        CACHE_DIR.mkdir();
+        StringBuilder out = new StringBuilder();
+        for (String origin : origins) {
+            out.append(origin).append('\n');
+        }
+        writeContents(join(CACHE_DIR, sha1(id, fileName)), out.toString());
+    }
+}
@@ -0,0 +1,78 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Content-defined chunking in the style of FastCDC.
+ *
+ *  A gear hash rolls over the data (shift left, add a per-byte random
+ *  value), and a chunk ends where the hash has zeros under a mask. Because
+ *  the hash only depends on the last few dozen bytes, an edit moves the cut
+ *  points near it and leaves every other cut point, and so every other
+ *  chunk, unchanged. Chunks are at least MIN_SIZE and at most MAX_SIZE
+ *  bytes; as in FastCDC, a stricter mask is used before AVG_SIZE and a
+ *  looser one after it, which keeps sizes close to the average.
+ *
+ *  @author Ting-Che Lin
+ */
+class Chunker {
+
+    /** Chunk size bounds, in bytes. */
+    static final int MIN_SIZE = 16 * 1024;
+    static final int AVG_SIZE = 64 * 1024;
+    static final int MAX_SIZE = 256 * 1024;
+
+    /** Masks with two bits more and two bits fewer than log2(AVG_SIZE),
+     *  taken from the high bits, which depend on the most recent bytes. */
+    private static final long MASK_SMALL = ((1L << 18) - 1) << 40;
+    private static final long MASK_LARGE = ((1L << 14) - 1) << 40;
+
+    /** The gear table. The seed is fixed so that every repository cuts the
+     *  same data in the same places. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x676c6974L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Returns the end offsets of the chunks of DATA, in order; the last is
+     *  DATA.length. */
+    static List<Integer> cut(byte[] data) {
+        List<Integer> ends = new ArrayList<>();
+        int start = 0;
+        while (start < data.length) {
+            start = next(data, start);
+            ends.add(start);
+        }
+        return ends;
+    }
+
+    /** Returns the end of the chunk of DATA starting at START. */
+    private static int next(byte[] data, int start) {
+        int remaining = data.length - start;
+        if (remaining <= MIN_SIZE) {
+            return data.length;
+        }
+        int normal = start + Math.min(AVG_SIZE, remaining);
+        int max = start + Math.min(MAX_SIZE, remaining);
+        long hash = 0;
+        int i = start + MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < max; i += 1) {
+            hash = (hash << 1) + GEAR[data[i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return max;
+    }
+}
@@ -1,12 +1,17 @@
 package gitlet;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
 import static gitlet.Utils.*;
 import static gitlet.Repository.*;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.Set;
 
 /** Represents a gitlet commit object.
  *  The Commit object represents a gitlet commit.
@@ -18,11 +23,17 @@ import java.util.HashMap;
  */
 public class Commit implements Serializable {
 
+    /** Fixed at the value the class had before files were kept in a
+     *  FileTable, so commits written earlier can still be read. */
+    private static final long serialVersionUID = -540272829656958605L;
+
     private String message; //message of this commit
     private String id; // the unique SHA1 code for the commit
     private String parent; //the String reference to the id of the parent commit
+    // the files of a commit written before FileTable, only while reading it
     private HashMap<String, String> fileList;
-    // A treemap containing all the files the commit is tracking
+    // A compact table of all the files the commit is tracking
+    private FileTable files;
     private String timeStamp; //timestamp indicating when the commit was created
     private String mergeprt1;
     private String mergeprt2;
@@ -31,7 +42,7 @@ public class Commit implements Serializable {
     public Commit(String msg, String prt, Stage stage) {
         message = msg;
         parent = prt;
-        fileList = new HashMap<>();
+        files = FileTable.EMPTY;
 
         // Format date-time
         SimpleDateFormat formatter = new SimpleDateFormat("E MMM dd HH:mm:ss yyyy Z");
@@ -39,23 +50,31 @@ public class Commit implements Serializable {
         timeStamp = formatter.format(date);
         //
         if (prt != null) {
-            Commit parentCommit = readObject(join(COMMIT_DIR, prt), Commit.class);
-            fileList = new HashMap<>();
-            fileList.putAll(parentCommit.getFileList());
+            Commit parentCommit = ObjectStore.readCommit(prt);
+            files = parentCommit.getFileList();
         }
         if (stage != null) {
+            //drop the files staged for removal, then update the staged ones
+            files = files.with(stage.getFiles(), stage.getRemovals());
+        }
+        id = sha1(msg + prt + timeStamp + files);
+    }
 
-            for (Map.Entry<String, String> entry
-                    : stage.getRemovals().entrySet()) { //first remove files staged for removal
-                fileList.remove(entry.getKey());
-            }
-
-            for (Map.Entry<String, String> entry
-                    : stage.getFiles().entrySet()) { //update files
-                fileList.put(entry.getKey(), entry.getValue());
-            }
+    /** Creates a commit of exactly FILES, made at TIME (formatted like any
+     *  timestamp), with first parent PRT1 and second parent PRT2 (null for
+     *  an ordinary commit). Used to import history, where the file table
+     *  is already known and the parent need not be read. */
+    Commit(String msg, String prt1, String prt2, Map<String, String> files,
+           String time) {
+        message = msg;
+        parent = prt1;
+        this.files = FileTable.of(files);
+        timeStamp = time;
+        if (prt2 != null) {
+            mergeprt1 = prt1;
+            mergeprt2 = prt2;
         }
-        id = sha1(msg + prt + timeStamp + fileList);
+        id = sha1(msg + prt1 + timeStamp + this.files + (prt2 == null ? "" : prt2));
     }
 
     public Commit(String msg, Stage stage, String prt1, String prt2) {
@@ -85,57 +104,70 @@ public class Commit implements Serializable {
     public void setParent(String prt) {
         parent = prt;
     }
-    public HashMap<String, String> getFileList() {
-        return fileList;
+    FileTable getFileList() {
+        return files;
     }
     public String getId() {
         return id;
     }
 
+    /** Reads a commit, moving the files of one written before FileTable
+     *  (in fileList) into a table. */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (files == null) {
+            files = fileList == null ? FileTable.EMPTY : FileTable.of(fileList);
+            fileList = null;
+        }
+    }
+
     //
 
-    public static void logCommits(Commit c) {
-        System.out.println("===");
-        System.out.println("commit " + c.getId());
-        if (c.mergeprt1 != null) {
-            System.out.println("Merge: " + c.mergeprt1.substring(0, 7)
-                    + " " + c.mergeprt2.substring(0, 7));
-        }
-        System.out.println("Date: " + c.getTimestamp());
-        System.out.println(c.getMessage());
-        System.out.println();
-        if (c.parent != null) {
-            Commit prt = readObject(join(COMMIT_DIR, c.getParent()), Commit.class);
-            logCommits(prt);
-        }
+    /** Returns this commit as log shows it. */
+    GitletRepository.LogEntry logEntry() {
+        return new GitletRepository.LogEntry(id, parent, mergeprt2, timeStamp, message);
     }
 
-    public static void globalLogCommits() {
-        List<String> commitList = plainFilenamesIn(COMMIT_DIR);
-        for (String commit : commitList) {
-            Commit c = readObject(join(COMMIT_DIR, commit), Commit.class);
-            System.out.println("===");
-            System.out.println("commit " + c.getId());
-            if (c.mergeprt1 != null) {
-                System.out.println("Merge: " + c.mergeprt1.substring(0, 7)
-                        + " " + c.mergeprt2.substring(0, 7));
-            }
-            System.out.println("Date: " + c.getTimestamp());
-            System.out.println(c.getMessage());
-            System.out.println();
+    public static void printCommit(Commit c) {
+        printCommit(c.logEntry());
+    }
+
+    static void printCommit(GitletRepository.LogEntry c) {
+        Output.out().println("===");
+        Output.out().println("commit " + c.id());
+        if (c.mergeParent() != null) {
+            Output.out().println("Merge: " + c.parent().substring(0, 7)
+                    + " " + c.mergeParent().substring(0, 7));
         }
+        Output.out().println("Date: " + c.timestamp());
+        Output.out().println(c.message());
+        Output.out().println();
     }
 
-    public static boolean find(String s) {
-        boolean hasMessage = false;
-        List<String> commitList = plainFilenamesIn(COMMIT_DIR);
-        for (String commit : commitList) {
-            Commit c = readObject(join(COMMIT_DIR, commit), Commit.class);
-            if (c.getMessage().equals(s)) {
-                System.out.println(c.getId());
-                hasMessage = true;
+    public static void logPath(String head, String fileName, boolean fullHistory) {
+        //prints the commits reachable from head that changed fileName,
+        //newest first, following only first parents unless fullHistory
+        Set<String> changed = PathIndex.changes(fileName);
+        PriorityQueue<CommitGraph.Node> queue = new PriorityQueue<>(
+                (x, y) -> Long.compare(y.time, x.time));
+        Set<String> seen = new HashSet<>();
+        queue.add(CommitGraph.lookup(head));
+        seen.add(head);
+        while (!queue.isEmpty()) {
+            CommitGraph.Node node = queue.poll();
+            if (PathIndex.changed(node.id, fileName, changed)) {
+                printCommit(ObjectStore.readCommit(node.id));
+            }
+            List<String> parents = CommitGraph.parents(node.id);
+            if (!fullHistory && parents.size() > 1) {
+                parents = parents.subList(0, 1);
+            }
+            for (String parent : parents) {
+                if (seen.add(parent)) {
+                    queue.add(CommitGraph.lookup(parent));
+                }
             }
         }
-        return hasMessage;
     }
 }
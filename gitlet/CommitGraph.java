@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** A compact, append-only index of the commit graph.
+ *
+ *  Every commit written or fetched adds one line to .gitlet/commit_graph:
+ *  "<id> <parent> <second parent> <time>", with "-" for a missing parent
+ *  and the commit time in milliseconds. Walks that only need the shape of
+ *  the history read this one file instead of deserializing each commit.
+ *  A commit's position is the number of distinct commits listed before it,
+ *  so positions are stable once assigned. Commits that predate the index
+ *  are simply absent; callers fall back to reading the commit itself.
+ *  A shallow boundary commit is listed with its parents, which a later
+ *  fetch may bring in, but parents() leaves them out while it is on the
+ *  boundary.
+ *
+ *  @author Ting-Che Lin
+ */
+class CommitGraph {
+
+    /** The graph file. */
+    static final File GRAPH = join(GITLET_DIR, "commit_graph");
+
+    /** One commit of the graph. */
+    static class Node {
+        final String id;
+        final String parent;
+        final String mergeParent;
+        final long time;
+        final int position;
+
+        Node(String id, String parent, String mergeParent, long time,
+             int position) {
+            this.id = id;
+            this.parent = parent;
+            this.mergeParent = mergeParent;
+            this.time = time;
+            this.position = position;
+        }
+    }
+
+    /** Indexed commits by id, and by position; null until first used. */
+    private static HashMap<String, Node> nodes;
+    private static ArrayList<Node> byPosition;
+
+    /** Returns the node of commit ID, or null if ID is not indexed. */
+    static Node get(String id) {
+        load();
+        return nodes.get(id);
+    }
+
+    /** Returns the node at POSITION. */
+    static Node at(int position) {
+        load();
+        return byPosition.get(position);
+    }
+
+    /** Returns the number of indexed commits. */
+    static int size() {
+        load();
+        return byPosition.size();
+    }
+
+    /** Returns the node of commit ID, reading the commit if it is not
+     *  indexed. The result of a fallback has position -1. */
+    static Node lookup(String id) {
+        Node node = get(id);
+        if (node != null) {
+            return node;
+        }
+        Commit c = ObjectStore.readCommit(id);
+        return new Node(id, c.getParent(), c.getMergeprt2(), timeOf(c), -1);
+    }
+
+    /** Returns the parents of commit ID that are in this repository: none
+     *  for the root or a shallow boundary commit. */
+    static List<String> parents(String id) {
+        List<String> result = new ArrayList<>(2);
+        if (Shallow.isBoundary(id)) {
+            return result;
+        }
+        Node node = lookup(id);
+        if (node.parent != null) {
+            result.add(node.parent);
+        }
+        if (node.mergeParent != null) {
+            result.add(node.mergeParent);
+        }
+        return result;
+    }
+
+    /** Adds commit C to the graph unless it is already there. */
+    static void add(Commit c) {
+        add(new Node(c.getId(), c.getParent(), c.getMergeprt2(), timeOf(c), -1));
+    }
+
+    /** Adds the commit described by COMMIT, whose position is ignored,
+     *  unless it is already there. */
+    static void add(Node commit) {
+        if (get(commit.id) != null) {
+            return;
+        }
+        String line = commit.id + " " + orDash(commit.parent) + " "
+            + orDash(commit.mergeParent) + " " + commit.time + "\n";
+        appendContents(GRAPH, line.getBytes(StandardCharsets.UTF_8));
+        Node node = new Node(commit.id, commit.parent, commit.mergeParent,
+                             commit.time, byPosition.size());
+        nodes.put(node.id, node);
+        byPosition.add(node);
+    }
+
+    /** Forgets the loaded graph so the next call rereads it. */
+    static void invalidate() {
+        nodes = null;
+        byPosition = null;
+    }
+
+    /** Returns the time of commit C in milliseconds. */
+    static long timeOf(Commit c) {
+        try {
+            return new SimpleDateFormat("E MMM dd HH:mm:ss yyyy Z")
+                .parse(c.getTimestamp()).getTime();
+        } catch (ParseException excp) {
+            return 0;
+        }
+    }
+
+    /** Reads the graph file, once. Repeated lines (from a replayed journal)
+     *  are ignored. */
+    private static void load() {
+        if (nodes != null) {
+            return;
+        }
+        nodes = new HashMap<>();
+        byPosition = new ArrayList<>();
+        if (!GRAPH.exists()) {
+            return;
+        }
+        for (String line : readContentsAsString(GRAPH).split("\n")) {
+            String[] fields = line.split(" ");
+            if (fields.length != 4 || nodes.containsKey(fields[0])) {
+                continue;
+            }
+            Node node = new Node(fields[0], orNull(fields[1]), orNull(fields[2]),
+                                 Long.parseLong(fields[3]), byPosition.size());
+            nodes.put(node.id, node);
+            byPosition.add(node);
+        }
+    }
+
+    private static String orDash(String id) {
+        return id == null ? "-" : id;
+    }
+
+    private static String orNull(String field) {
+        return field.equals("-") ? null : field;
+    }
+}
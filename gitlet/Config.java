@@ -0,0 +1,106 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.zip.Deflater;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Per-repository settings, kept as a properties file in .gitlet/config and
+ *  changed with the config command.
+ *
+ *  @author Ting-Che Lin
+ */
+class Config {
+
+    /** The config file. */
+    static final File CONFIG = join(GITLET_DIR, "config");
+
+    /** zlib compression level for stored objects, 0 (none) to 9 (best), or
+     *  -1 for the Deflater default. */
+    static final String COMPRESSION = "core.compression";
+
+    /** Size in bytes from which blobs are stored as chunks. */
+    static final String BIG_FILE_THRESHOLD = "core.bigFileThreshold";
+
+    /** The loaded settings, or null until first used. */
+    private static Properties props;
+
+    /** Returns the value of KEY, or DEFAULTVALUE if it is not set. */
+    static String get(String key, String defaultValue) {
+        return load().getProperty(key, defaultValue);
+    }
+
+    /** Returns the value of KEY as an int, or DEFAULTVALUE if it is not set
+     *  or not a number. */
+    static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, Integer.toString(defaultValue)));
+        } catch (NumberFormatException excp) {
+            return defaultValue;
+        }
+    }
+
+    /** Sets KEY to VALUE and saves the config file. Fails, changing
+     *  nothing, if VALUE is not valid for KEY. */
+    static void set(String key, String value) {
+        check(key, value);
+        load().setProperty(key, value);
+        save();
+    }
+
+    /** Fails if VALUE is not valid for KEY. */
+    private static void check(String key, String value) {
+        if (key.equals(COMPRESSION)) {
+            int level;
+            try {
+                level = Integer.parseInt(value);
+            } catch (NumberFormatException excp) {
+                level = Integer.MIN_VALUE;
+            }
+            if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+                throw error("Compression level must be between -1 and 9.");
+            }
+        }
+    }
+
+    /** Writes the config file. */
+    private static void save() {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            props.store(out, "gitlet config");
+            writeContents(CONFIG, out.toByteArray());
+        } catch (IOException excp) {
+            throw error("Could not write config: %s", excp.getMessage());
+        }
+    }
+
+    /** Unsets KEY and saves the config file. */
+    static void remove(String key) {
+        load().remove(key);
+        save();
+    }
+
+    /** Forgets the loaded settings so the next call rereads them. */
+    static void invalidate() {
+        props = null;
+    }
+
+    /** Reads the config file, once. */
+    private static Properties load() {
+        if (props == null) {
+            props = new Properties();
+            if (CONFIG.exists()) {
+                try {
+                    props.load(new ByteArrayInputStream(readContents(CONFIG)));
+                } catch (IOException excp) {
+                    throw error("Could not read config: %s", excp.getMessage());
+                }
+            }
+        }
+        return props;
+    }
+}
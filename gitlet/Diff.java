@@ -0,0 +1,348 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** The diff command, and the line diff it is built on.
+ *
+ *  Two trees (file name to blob hash maps) are compared by hash first, so
+ *  unchanged files cost nothing. Each changed file is diffed on its own
+ *  task; the results are printed in file name order, each as soon as it and
+ *  every file before it are done, so output starts before the whole diff
+ *  is computed. Lines are compared with Myers' O(ND) algorithm in its
+ *  linear-space form, which finds the middle snake of the edit path and
+ *  recurses on both halves.
+ *
+ *  @author Ting-Che Lin
+ */
+class Diff {
+
+    /** Lines of context around each change. */
+    private static final int CONTEXT = 3;
+
+    /** Result of comparing two line sequences: DELETED[i] is true if line i
+     *  of the first is not in the longest common subsequence, INSERTED[j]
+     *  likewise for line j of the second. */
+    static class Edits {
+        final boolean[] deleted;
+        final boolean[] inserted;
+
+        Edits(int n, int m) {
+            deleted = new boolean[n];
+            inserted = new boolean[m];
+        }
+    }
+
+    /** Prints the differences between tree A and tree B, restricted to
+     *  PATH unless it is null. LOADA and LOADB return the contents of a file
+     *  given its name and hash in A and B respectively. */
+    static void diffTrees(Map<String, String> a, Map<String, String> b,
+                          BiFunction<String, String, byte[]> loadA,
+                          BiFunction<String, String, byte[]> loadB,
+                          String path, PrintStream out) {
+        TreeSet<String> names = new TreeSet<>();
+        names.addAll(a.keySet());
+        names.addAll(b.keySet());
+        List<CompletableFuture<String>> pending = new ArrayList<>();
+        for (String name : names) {
+            if (path != null && !path.equals(name)) {
+                continue;
+            }
+            String hashA = a.get(name);
+            String hashB = b.get(name);
+            if (hashA != null && hashA.equals(hashB)) {
+                continue;
+            }
+            pending.add(CompletableFuture.supplyAsync(() -> diffFile(name,
+                hashA == null ? null : loadA.apply(name, hashA),
+                hashB == null ? null : loadB.apply(name, hashB))));
+        }
+        for (CompletableFuture<String> file : pending) {
+            out.print(file.join());
+            out.flush();
+        }
+    }
+
+    /** Returns the unified diff of file NAME from contents A to contents B,
+     *  either of which is null if the file does not exist on that side. */
+    static String diffFile(String name, byte[] a, byte[] b) {
+        StringBuilder out = new StringBuilder();
+        out.append("diff --gitlet a/").append(name)
+            .append(" b/").append(name).append('\n');
+        if (isBinary(a) || isBinary(b)) {
+            out.append("Binary files ").append(a == null ? "/dev/null" : "a/" + name)
+                .append(" and ").append(b == null ? "/dev/null" : "b/" + name)
+                .append(" differ\n");
+            return out.toString();
+        }
+        out.append("--- ").append(a == null ? "/dev/null" : "a/" + name).append('\n');
+        out.append("+++ ").append(b == null ? "/dev/null" : "b/" + name).append('\n');
+        String[] linesA = splitLines(a);
+        String[] linesB = splitLines(b);
+        appendHunks(out, linesA, linesB, compare(linesA, linesB));
+        return out.toString();
+    }
+
+    /** Splits CONTENTS into lines, each keeping its trailing newline. */
+    static String[] splitLines(byte[] contents) {
+        if (contents == null || contents.length == 0) {
+            return new String[0];
+        }
+        String text = new String(contents, StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    /** Returns true if CONTENTS has a NUL byte in its first 8000 bytes. */
+    private static boolean isBinary(byte[] contents) {
+        if (contents == null) {
+            return false;
+        }
+        for (int i = 0; i < Math.min(contents.length, 8000); i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns a minimal set of edits turning A into B. */
+    static Edits compare(String[] a, String[] b) {
+        HashMap<String, Integer> ids = new HashMap<>();
+        int[] x = new int[a.length];
+        int[] y = new int[b.length];
+        for (int i = 0; i < a.length; i += 1) {
+            x[i] = ids.computeIfAbsent(a[i], k -> ids.size());
+        }
+        for (int j = 0; j < b.length; j += 1) {
+            y[j] = ids.computeIfAbsent(b[j], k -> ids.size());
+        }
+        Edits edits = new Edits(a.length, b.length);
+        int max = a.length + b.length + 1;
+        int[] vf = new int[2 * max + 2];
+        int[] vb = new int[2 * max + 2];
+        compare(x, 0, x.length, y, 0, y.length, vf, vb, edits);
+        return edits;
+    }
+
+    /** Marks the edits turning A[aLo..aHi) into B[bLo..bHi), using VF and VB
+     *  as scratch space for the forward and backward searches. */
+    private static void compare(int[] a, int aLo, int aHi, int[] b, int bLo,
+                                int bHi, int[] vf, int[] vb, Edits edits) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi) {
+            for (int j = bLo; j < bHi; j += 1) {
+                edits.inserted[j] = true;
+            }
+            return;
+        }
+        if (bLo == bHi) {
+            for (int i = aLo; i < aHi; i += 1) {
+                edits.deleted[i] = true;
+            }
+            return;
+        }
+        int[] snake = middleSnake(a, aLo, aHi, b, bLo, bHi, vf, vb);
+        compare(a, aLo, snake[0], b, bLo, snake[1], vf, vb, edits);
+        compare(a, snake[2], aHi, b, snake[3], bHi, vf, vb, edits);
+    }
+
+    /** Returns {x, y, u, v}: the middle snake of the shortest edit path from
+     *  A[aLo..aHi) to B[bLo..bHi), running from (x, y) to (u, v) in absolute
+     *  indices. Both ranges are non-empty. */
+    private static int[] middleSnake(int[] a, int aLo, int aHi, int[] b,
+                                     int bLo, int bHi, int[] vf, int[] vb) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int off = (n + m + 1) / 2 + 1;
+        vf[off + 1] = 0;
+        vb[off + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && vf[off + k - 1] < vf[off + k + 1]))
+                    ? vf[off + k + 1] : vf[off + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vf[off + k] = x;
+                int kr = delta - k;
+                if (odd && kr >= -(d - 1) && kr <= d - 1
+                    && vf[off + k] + vb[off + kr] >= n) {
+                    return new int[] {aLo + x0, bLo + y0, aLo + x, bLo + y};
+                }
+            }
+            for (int kr = -d; kr <= d; kr += 2) {
+                int x = (kr == -d || (kr != d && vb[off + kr - 1] < vb[off + kr + 1]))
+                    ? vb[off + kr + 1] : vb[off + kr - 1] + 1;
+                int y = x - kr;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m
+                       && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x += 1;
+                    y += 1;
+                }
+                vb[off + kr] = x;
+                int k = delta - kr;
+                if (!odd && k >= -d && k <= d
+                    && vf[off + k] + vb[off + kr] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - x0, bHi - y0};
+                }
+            }
+        }
+        throw error("Internal error in diff.");
+    }
+
+    /** Appends the unified-format hunks for EDITS from A to B to OUT. */
+    private static void appendHunks(StringBuilder out, String[] a, String[] b,
+                                    Edits edits) {
+        // Edit script as a list of {kind, index}: kind -1 delete, +1 insert,
+        // 0 keep (index into a).
+        List<int[]> script = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (i < a.length && edits.deleted[i]) {
+                script.add(new int[] {-1, i++, j});
+            } else if (j < b.length && edits.inserted[j]) {
+                script.add(new int[] {1, i, j++});
+            } else {
+                script.add(new int[] {0, i++, j++});
+            }
+        }
+        int s = 0;
+        while (s < script.size()) {
+            if (script.get(s)[0] == 0) {
+                s += 1;
+                continue;
+            }
+            int lastChange = s;
+            for (int k = s + 1; k < script.size(); k += 1) {
+                if (script.get(k)[0] != 0) {
+                    lastChange = k;
+                } else if (k - lastChange > 2 * CONTEXT) {
+                    break;
+                }
+            }
+            int start = Math.max(0, s - CONTEXT);
+            int end = Math.min(script.size(), lastChange + CONTEXT + 1);
+            appendHunk(out, a, b, script.subList(start, end));
+            s = end;
+        }
+    }
+
+    /** Appends one hunk covering the edit script entries in HUNK to OUT. */
+    private static void appendHunk(StringBuilder out, String[] a, String[] b,
+                                   List<int[]> hunk) {
+        int aStart = hunk.get(0)[1];
+        int bStart = hunk.get(0)[2];
+        int aLen = 0;
+        int bLen = 0;
+        for (int[] op : hunk) {
+            aLen += op[0] <= 0 ? 1 : 0;
+            bLen += op[0] >= 0 ? 1 : 0;
+        }
+        out.append("@@ -").append(aLen == 0 ? aStart : aStart + 1).append(',').append(aLen)
+            .append(" +").append(bLen == 0 ? bStart : bStart + 1).append(',').append(bLen)
+            .append(" @@\n");
+        for (int[] op : hunk) {
+            String line = op[0] > 0 ? b[op[2]] : a[op[1]];
+            out.append(op[0] < 0 ? '-' : op[0] > 0 ? '+' : ' ').append(line);
+            if (!line.endsWith("\n")) {
+                out.append("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+
+    /** Runs the diff command with operands ARGS: [COMMIT [COMMIT]] [-- FILE].
+     *  With no commits, HEAD is compared to the working directory; with one,
+     *  that commit is. */
+    static void diffCommand(String[] args) {
+        List<String> commits = new ArrayList<>();
+        String path = null;
+        for (int i = 1; i < args.length; i += 1) {
+            if (args[i].equals("--") && i + 2 == args.length) {
+                path = args[i + 1];
+                break;
+            }
+            commits.add(args[i]);
+        }
+        if (commits.size() > 2) {
+            throw error("Incorrect operands.");
+        }
+        List<Map<String, String>> trees = new ArrayList<>();
+        for (String prefix : commits) {
+            String id = resolveCommitId(prefix);
+            if (id == null) {
+                throw error("No commit with that id exists.");
+            }
+            trees.add(ObjectStore.readCommit(id).getFileList());
+        }
+        BiFunction<String, String, byte[]> fromStore = (name, hash) ->
+            ObjectStore.readBlob(hash);
+        if (trees.size() == 2) {
+            diffTrees(trees.get(0), trees.get(1), fromStore, fromStore, path,
+                      Output.out());
+            return;
+        }
+        if (trees.isEmpty()) {
+            trees.add(ObjectStore.readCommit(getHeadCommit()).getFileList());
+        }
+        diffTrees(trees.get(0), workingTree(trees.get(0)), fromStore,
+                  (name, hash) -> readContents(join(CWD, name)), path, Output.out());
+    }
+
+    /** Returns the working directory as a tree: every file tracked by BASE
+     *  or staged, mapped to the hash of its current contents. Files outside
+     *  a sparse checkout count as unchanged. */
+    private static Map<String, String> workingTree(Map<String, String> base) {
+        TreeSet<String> names = new TreeSet<>(base.keySet());
+        Stage stage = Stage.load();
+        names.addAll(stage.getFiles().keySet());
+        names.removeAll(stage.getRemovals().keySet());
+        TreeMap<String, String> tree = new TreeMap<>();
+        for (String name : names) {
+            if (!Sparse.includes(name)) {
+                if (base.containsKey(name)) {
+                    tree.put(name, base.get(name));
+                }
+            } else if (join(CWD, name).isFile()) {
+                tree.put(name, sha1(readContents(join(CWD, name))));
+            }
+        }
+        return tree;
+    }
+}
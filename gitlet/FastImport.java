@@ -0,0 +1,549 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** The fast-import command: reads history in the git fast-import format
+ *  from standard input and adds it to the repository in one run.
+ *
+ *  Supported are blob, commit (with mark, author, committer, from, merge
+ *  and the M, D, C, R and deleteall file commands), reset, tag (skipped),
+ *  checkpoint, progress, feature, option and done. Branches are the refs
+ *  under refs/heads/; other refs are imported but not kept. File modes are
+ *  not recorded, and paths must be plain file names, since a gitlet working
+ *  directory is flat. A commit without a parent is attached to the initial
+ *  commit, as every gitlet history starts there.
+ *
+ *  Each branch's file table is kept in memory, so a commit is built from
+ *  its file commands without reading its parent. Objects are written in
+ *  place as they are read and synced once per Journal transaction of
+ *  BATCH_COMMITS commits or BATCH_BYTES bytes. The path index and commit graph entries are only
+ *  added at the end, one append per file name, in the same transaction
+ *  that moves the branches; an interrupted import leaves some unreachable
+ *  objects (which gc removes) and no changed branch.
+ *
+ *  @author Ting-Che Lin
+ */
+class FastImport {
+
+    /** Commits and blob bytes per transaction. */
+    private static final int BATCH_COMMITS = 1000;
+    private static final long BATCH_BYTES = 64 * 1024 * 1024;
+
+    /** The prefix of branch refs. */
+    private static final String HEADS = "refs/heads/";
+
+    /** The input, and a line read ahead of time, or null. */
+    private final InputStream in;
+    private String peeked;
+
+    /** Objects by mark (":N"). */
+    private final HashMap<String, String> marks = new HashMap<>();
+    /** The imported tip of each ref, its file table (kept up to date as
+     *  file commands are read), and the same as the tip commit holds it. */
+    private final TreeMap<String, String> tips = new TreeMap<>();
+    private final HashMap<String, HashMap<String, String>> tables = new HashMap<>();
+    private final HashMap<String, FileTable> trees = new HashMap<>();
+
+    /** The imported commits, parents first, and the ids of the commits
+     *  that changed each file name; indexed at the end. */
+    private final List<CommitGraph.Node> imported = new ArrayList<>();
+    private final TreeMap<String, List<String>> changes = new TreeMap<>();
+
+    /** The commit that imported roots are attached to; null until needed. */
+    private String root;
+
+    /** Counts for the summary and the current batch. */
+    private int blobCount;
+    private int batchCommits;
+    private long batchBytes;
+
+    private FastImport(InputStream in) {
+        this.in = new BufferedInputStream(in, 1 << 16);
+    }
+
+    /** Runs fast-import on the stream IN. */
+    static void run(InputStream in) {
+        new FastImport(in).importAll();
+    }
+
+    /** Imports every command of the stream, then moves the branches. */
+    private void importAll() {
+        long start = System.nanoTime();
+        String oldHead = getHeadCommit();
+        Journal.begin();
+        for (String line = readLine(); line != null && !line.equals("done");
+             line = readLine()) {
+            if (line.isEmpty() || line.startsWith("#")
+                || line.startsWith("feature ") || line.startsWith("option ")) {
+                continue;
+            } else if (line.equals("blob")) {
+                importBlob();
+            } else if (line.startsWith("commit ")) {
+                importCommit(line.substring("commit ".length()));
+            } else if (line.startsWith("reset ")) {
+                reset(line.substring("reset ".length()));
+            } else if (line.startsWith("tag ")) {
+                skipTag();
+            } else if (line.equals("checkpoint")) {
+                flush();
+            } else if (line.startsWith("progress ")) {
+                Output.out().println(line.substring("progress ".length()));
+            } else {
+                fail("Unsupported command: %s", line);
+            }
+        }
+
+        PathIndex.addAll(imported, changes);
+        for (Map.Entry<String, String> tip : tips.entrySet()) {
+            if (tip.getKey().startsWith(HEADS) && tip.getValue() != null) {
+                Refs.set(tip.getKey().substring(HEADS.length()), tip.getValue());
+            }
+        }
+        String newHead = getHeadCommit();
+        if (!newHead.equals(oldHead)) {
+            if (hasUncomittedChanges() || hasUntrackedFiles()) {
+                Output.out().println("The current branch moved; the working"
+                    + " directory was left as it was.");
+            } else {
+                checkoutBranch(newHead, getCurrentBranch());
+            }
+        }
+        Journal.commit();
+
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        message("Imported %d blobs and %d commits in %d ms (%d commits/min).",
+                blobCount, imported.size(), millis,
+                imported.size() * 60_000L / millis);
+    }
+
+    /** Imports a blob: [mark], [original-oid], data. */
+    private void importBlob() {
+        String mark = readMark();
+        skip("original-oid ");
+        byte[] contents = readData();
+        String hash = ObjectStore.writeBlob(contents);
+        if (mark != null) {
+            marks.put(mark, hash);
+        }
+        blobCount += 1;
+        batchBytes += contents.length;
+        maybeFlush();
+    }
+
+    /** Imports a commit to REF: [mark], [original-oid], [author],
+     *  committer, message, [from], merge*, then file commands. */
+    private void importCommit(String ref) {
+        String mark = readMark();
+        skip("original-oid ");
+        skip("author ");
+        String committer = readLine();
+        if (committer == null || !committer.startsWith("committer ")) {
+            fail("Expected committer in commit to %s", ref);
+        }
+        String message = new String(readData(), StandardCharsets.UTF_8);
+        if (message.endsWith("\n")) {
+            message = message.substring(0, message.length() - 1);
+        }
+
+        String parent = tips.containsKey(ref) ? tips.get(ref) : existingTip(ref);
+        HashMap<String, String> table = tables.get(ref);
+        String next = peekLine();
+        if (next != null && next.startsWith("from ")) {
+            readLine();
+            parent = resolve(next.substring("from ".length()));
+            table = null;
+        }
+        String mergeParent = null;
+        for (next = peekLine(); next != null && next.startsWith("merge ");
+             next = peekLine()) {
+            readLine();
+            if (mergeParent != null) {
+                fail("Octopus merges are not supported (commit to %s)", ref);
+            }
+            mergeParent = resolve(next.substring("merge ".length()));
+        }
+        if (parent == null) {
+            parent = root();
+        }
+        if (table == null) {
+            table = tableOf(parent);
+        }
+        FileTable tree = treeOf(parent);
+
+        HashMap<String, String> before = new HashMap<>();
+        applyFileCommands(table, before);
+        HashMap<String, String> written = new HashMap<>();
+        for (String name : before.keySet()) {
+            if (table.containsKey(name)) {
+                written.put(name, table.get(name));
+            }
+        }
+        Commit commit = new Commit(message, parent, mergeParent,
+                                   tree.with(written, before), timestamp(committer));
+        ObjectStore.writeCommit(commit);
+
+        String id = commit.getId();
+        for (Map.Entry<String, String> file : before.entrySet()) {
+            if (!Objects.equals(file.getValue(), table.get(file.getKey()))) {
+                changes.computeIfAbsent(file.getKey(), k -> new ArrayList<>()).add(id);
+            }
+        }
+        imported.add(new CommitGraph.Node(id, parent, mergeParent,
+                                          CommitGraph.timeOf(commit), -1));
+        tips.put(ref, id);
+        tables.put(ref, table);
+        trees.put(ref, commit.getFileList());
+        if (mark != null) {
+            marks.put(mark, id);
+        }
+        batchCommits += 1;
+        maybeFlush();
+    }
+
+    /** Applies the file commands that follow a commit header to TABLE,
+     *  recording in BEFORE the earlier version (or null) of every file
+     *  they touch. */
+    private void applyFileCommands(HashMap<String, String> table,
+                                   HashMap<String, String> before) {
+        for (String line = peekLine(); line != null; line = peekLine()) {
+            if (line.startsWith("M ")) {
+                readLine();
+                String[] parts = line.split(" ", 4);
+                if (parts.length != 4) {
+                    fail("Malformed filemodify: %s", line);
+                }
+                if (parts[1].equals("160000")) {
+                    continue;
+                }
+                String hash = parts[2].equals("inline")
+                    ? ObjectStore.writeBlob(readData()) : resolveBlob(parts[2]);
+                String path = checkPath(unquote(parts[3]));
+                before.putIfAbsent(path, table.get(path));
+                table.put(path, hash);
+            } else if (line.startsWith("D ")) {
+                readLine();
+                String path = unquote(line.substring(2));
+                before.putIfAbsent(path, table.get(path));
+                table.remove(path);
+            } else if (line.startsWith("C ") || line.startsWith("R ")) {
+                readLine();
+                String[] paths = splitPaths(line.substring(2));
+                String hash = table.get(paths[0]);
+                if (hash == null) {
+                    fail("No such file to copy or rename: %s", paths[0]);
+                }
+                checkPath(paths[1]);
+                before.putIfAbsent(paths[1], table.get(paths[1]));
+                table.put(paths[1], hash);
+                if (line.startsWith("R ")) {
+                    before.putIfAbsent(paths[0], hash);
+                    table.remove(paths[0]);
+                }
+            } else if (line.equals("deleteall")) {
+                readLine();
+                for (Map.Entry<String, String> file : table.entrySet()) {
+                    before.putIfAbsent(file.getKey(), file.getValue());
+                }
+                table.clear();
+            } else if (line.startsWith("N ")) {
+                readLine();
+                if (line.startsWith("N inline ")) {
+                    readData();
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    /** Handles reset REF [from]: without from, the next commit to REF
+     *  starts a new history. */
+    private void reset(String ref) {
+        String next = peekLine();
+        if (next != null && next.startsWith("from ")) {
+            readLine();
+            String id = resolve(next.substring("from ".length()));
+            tips.put(ref, id);
+            tables.put(ref, tableOf(id));
+        } else {
+            tips.put(ref, null);
+            tables.remove(ref);
+        }
+    }
+
+    /** Skips the rest of a tag command; gitlet has no tags. */
+    private void skipTag() {
+        skip("mark ");
+        skip("from ");
+        skip("original-oid ");
+        skip("tagger ");
+        readData();
+    }
+
+    /** Ends the current transaction and starts another if the batch is
+     *  full. */
+    private void maybeFlush() {
+        if (batchCommits >= BATCH_COMMITS || batchBytes >= BATCH_BYTES) {
+            flush();
+        }
+    }
+
+    /** Ends the current transaction, syncing the objects written in it,
+     *  and starts another. */
+    private void flush() {
+        Journal.commit();
+        Journal.begin();
+        batchCommits = 0;
+        batchBytes = 0;
+    }
+
+    /** Returns the tip of REF in the repository before the import, or
+     *  null if it is not an existing branch. */
+    private String existingTip(String ref) {
+        String branch = ref.startsWith(HEADS) ? ref.substring(HEADS.length()) : null;
+        return branch != null && Refs.exists(branch) ? Refs.get(branch) : null;
+    }
+
+    /** Returns the commit that REF (a mark, a full commit id or a ref)
+     *  names. */
+    private String resolve(String ref) {
+        String id;
+        if (ref.startsWith(":")) {
+            id = marks.get(ref);
+        } else if (tips.get(ref) != null) {
+            id = tips.get(ref);
+        } else if (ref.length() == UID_LENGTH && join(COMMIT_DIR, ref).exists()) {
+            id = ref;
+        } else {
+            id = existingTip(ref);
+        }
+        if (id == null) {
+            fail("Unknown commit: %s", ref);
+        }
+        return id;
+    }
+
+    /** Returns the blob that REF (a mark or a full hash) names. */
+    private String resolveBlob(String ref) {
+        String hash = ref.startsWith(":") ? marks.get(ref) : ref;
+        if (hash == null || !join(GITLET_DIR, hash).exists()) {
+            fail("Unknown blob: %s", ref);
+        }
+        return hash;
+    }
+
+    /** Returns a copy of the file table of commit ID, from memory if ID is
+     *  a tip imported in this run. */
+    private HashMap<String, String> tableOf(String id) {
+        for (Map.Entry<String, String> tip : tips.entrySet()) {
+            if (id.equals(tip.getValue()) && tables.containsKey(tip.getKey())) {
+                return new HashMap<>(tables.get(tip.getKey()));
+            }
+        }
+        return new HashMap<>(ObjectStore.readCommit(id).getFileList());
+    }
+
+    /** Returns the file table of commit ID, from memory if ID is a tip
+     *  imported in this run. */
+    private FileTable treeOf(String id) {
+        for (Map.Entry<String, String> tip : tips.entrySet()) {
+            if (id.equals(tip.getValue()) && trees.containsKey(tip.getKey())) {
+                return trees.get(tip.getKey());
+            }
+        }
+        return ObjectStore.readCommit(id).getFileList();
+    }
+
+    /** Returns the root of the current branch's history. */
+    private String root() {
+        if (root == null) {
+            String id = getHeadCommit();
+            for (CommitGraph.Node node = CommitGraph.lookup(id);
+                 node.parent != null && !Shallow.isBoundary(id);
+                 node = CommitGraph.lookup(id)) {
+                id = node.parent;
+            }
+            root = id;
+        }
+        return root;
+    }
+
+    /** Returns COMMITTER's date ("... <email> SECONDS +HHMM") as a gitlet
+     *  timestamp. */
+    private static String timestamp(String committer) {
+        String[] parts = committer.split(" ");
+        if (parts.length < 3) {
+            fail("Malformed committer: %s", committer);
+        }
+        String zone = parts[parts.length - 1];
+        try {
+            long seconds = Long.parseLong(parts[parts.length - 2]);
+            SimpleDateFormat formatter = new SimpleDateFormat("E MMM dd HH:mm:ss yyyy Z");
+            formatter.setTimeZone(TimeZone.getTimeZone(
+                "GMT" + zone.substring(0, 3) + ":" + zone.substring(3)));
+            return formatter.format(new Date(seconds * 1000));
+        } catch (NumberFormatException | StringIndexOutOfBoundsException excp) {
+            fail("Malformed committer date: %s", committer);
+            return null;
+        }
+    }
+
+    /** Returns PATH, failing if it is not a plain file name. */
+    private static String checkPath(String path) {
+        if (path.isEmpty() || path.contains("/") || path.equals(".gitlet")) {
+            fail("Unsupported path: %s (the working directory is flat)", path);
+        }
+        return path;
+    }
+
+    /** Returns the two paths of a copy or rename in LINE. */
+    private static String[] splitPaths(String line) {
+        int end;
+        if (line.startsWith("\"")) {
+            end = line.indexOf("\" ") + 1;
+            while (end > 0 && line.charAt(end - 2) == '\\') {
+                end = line.indexOf("\" ", end) + 1;
+            }
+        } else {
+            end = line.indexOf(' ');
+        }
+        if (end <= 0) {
+            fail("Malformed copy or rename: %s", line);
+        }
+        return new String[] {unquote(line.substring(0, end)),
+                             unquote(line.substring(end + 1))};
+    }
+
+    /** Returns PATH without its C-style quotes, if it has them. */
+    private static String unquote(String path) {
+        if (path.length() < 2 || !path.startsWith("\"") || !path.endsWith("\"")) {
+            return path;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 1; i < path.length() - 1; i += 1) {
+            char c = path.charAt(i);
+            if (c != '\\') {
+                bytes.writeBytes(String.valueOf(c).getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            c = path.charAt(++i);
+            switch (c) {
+                case 'n': bytes.write('\n'); break;
+                case 't': bytes.write('\t'); break;
+                case '0': case '1': case '2': case '3':
+                    bytes.write(Integer.parseInt(path.substring(i, i + 3), 8));
+                    i += 2;
+                    break;
+                default: bytes.write(c);
+            }
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    /** Reads "mark :N" if it comes next and returns ":N", or null. */
+    private String readMark() {
+        String next = peekLine();
+        if (next != null && next.startsWith("mark ")) {
+            readLine();
+            return next.substring("mark ".length());
+        }
+        return null;
+    }
+
+    /** Reads the next line if it starts with PREFIX. */
+    private void skip(String prefix) {
+        String next = peekLine();
+        if (next != null && next.startsWith(prefix)) {
+            readLine();
+        }
+    }
+
+    /** Reads a data command, "data N" followed by N bytes or "data <<END"
+     *  followed by lines up to END, and returns the bytes. */
+    private byte[] readData() {
+        String line = readLine();
+        if (line == null || !line.startsWith("data ")) {
+            fail("Expected data, got: %s", line);
+        }
+        String size = line.substring("data ".length());
+        try {
+            if (size.startsWith("<<")) {
+                String end = size.substring(2);
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                for (String next = readLine(); !end.equals(next); next = readLine()) {
+                    if (next == null) {
+                        fail("Unterminated data <<%s", end);
+                    }
+                    bytes.writeBytes((next + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                return bytes.toByteArray();
+            }
+            int n = Integer.parseInt(size);
+            byte[] data = in.readNBytes(n);
+            if (data.length != n) {
+                fail("Unexpected end of input in data");
+            }
+            in.mark(1);
+            if (in.read() != '\n') {
+                in.reset();
+            }
+            return data;
+        } catch (IOException | NumberFormatException excp) {
+            fail("Bad data command: %s", line);
+            return null;
+        }
+    }
+
+    /** Returns the next line without consuming it, or null at the end. */
+    private String peekLine() {
+        if (peeked == null) {
+            peeked = readRawLine();
+        }
+        return peeked;
+    }
+
+    /** Returns and consumes the next line, or null at the end. */
+    private String readLine() {
+        String line = peekLine();
+        peeked = null;
+        return line;
+    }
+
+    /** Reads a line from the input. */
+    private String readRawLine() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            int c = in.read();
+            if (c == -1) {
+                return null;
+            }
+            for (; c != -1 && c != '\n'; c = in.read()) {
+                bytes.write(c);
+            }
+            return bytes.toString(StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error("Could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /** Throws a GitletException with a message made from FORMAT and ARGS.
+     *  Objects already written stay unreachable; no branch is changed. */
+    private static void fail(String format, Object... args) {
+        throw new GitletException("fast-import: " + String.format(format, args));
+    }
+}
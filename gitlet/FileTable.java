@@ -0,0 +1,389 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/** The files of a commit: an immutable map from file name to blob hash,
+ *  kept in three arrays however many files there are.
+ *
+ *  The names are sorted (by their UTF-8 bytes) and stored back to back in
+ *  one byte array, with an array of offsets into it; the hashes are stored
+ *  as 20 raw bytes each, in the same order. Looking up a name is a binary
+ *  search that compares bytes in place, and Join walks several tables side
+ *  by side in one pass, as a merge join. Neither creates an object per
+ *  file, so diffing or merging trees costs no allocation for the files
+ *  they have in common; strings are made only for the files a caller asks
+ *  about. The Map methods work as usual, decoding on the way out. Names
+ *  are not split into shared prefixes: gitlet tracks only the files at the
+ *  top of the working directory, so there are no directories to share.
+ *
+ *  Commits written before FileTable kept their files in a HashMap; Commit
+ *  turns that into a table as it is read (see FileTable.of). A table read
+ *  from disk is checked before use, so a damaged one fails to read rather
+ *  than failing later in a lookup.
+ *
+ *  @author Ting-Che Lin
+ */
+final class FileTable extends AbstractMap<String, String> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Bytes in a packed hash. */
+    private static final int HASH_BYTES = Utils.UID_LENGTH / 2;
+
+    /** The table with no files. */
+    static final FileTable EMPTY = new FileTable(new byte[0], new int[1], new byte[0]);
+
+    /** The names, back to back. */
+    private final byte[] names;
+
+    /** Name I is names[offsets[I]] up to names[offsets[I + 1]]. */
+    private final int[] offsets;
+
+    /** The hash of name I is hashes[I * HASH_BYTES] onwards. */
+    private final byte[] hashes;
+
+    private FileTable(byte[] names, int[] offsets, byte[] hashes) {
+        this.names = names;
+        this.offsets = offsets;
+        this.hashes = hashes;
+    }
+
+    /** Checks a table just read: offsets start at 0, never go back, end
+     *  at the end of the names, and there is one hash per name. */
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (names == null || offsets == null || hashes == null
+            || offsets.length == 0 || offsets[0] != 0
+            || offsets[offsets.length - 1] != names.length
+            || hashes.length != (offsets.length - 1) * HASH_BYTES) {
+            throw new InvalidObjectException("damaged file table");
+        }
+        for (int i = 1; i < offsets.length; i += 1) {
+            if (offsets[i] < offsets[i - 1]) {
+                throw new InvalidObjectException("damaged file table");
+            }
+        }
+    }
+
+    /** Reads an empty table as EMPTY. */
+    private Object readResolve() {
+        return size() == 0 ? EMPTY : this;
+    }
+
+    /** Returns a table of the entries of FILES. */
+    static FileTable of(Map<String, String> files) {
+        if (files instanceof FileTable) {
+            return (FileTable) files;
+        }
+        return EMPTY.with(files, Map.of());
+    }
+
+    /** Returns this table with the entries of ADDED put in, replacing any
+     *  with the same names, and the names that are keys of REMOVED left out.
+     *  This table is copied in one pass; only the changes are sorted. */
+    FileTable with(Map<String, String> added, Map<String, ?> removed) {
+        byte[][] addedNames = encodeSorted(added.keySet());
+        byte[][] removedNames = encodeSorted(removed.keySet());
+        Builder out = new Builder(size() + addedNames.length,
+                                  names.length + totalLength(addedNames));
+        int i = 0;
+        int a = 0;
+        int r = 0;
+        while (i < size() || a < addedNames.length) {
+            int cmp;
+            if (i == size()) {
+                cmp = 1;
+            } else if (a == addedNames.length) {
+                cmp = -1;
+            } else {
+                cmp = compareName(i, addedNames[a]);
+            }
+            if (cmp > 0) {
+                String name = new String(addedNames[a], StandardCharsets.UTF_8);
+                out.add(addedNames[a], 0, addedNames[a].length, added.get(name));
+                a += 1;
+                continue;
+            }
+            if (cmp == 0) {
+                a += 1;
+            }
+            while (r < removedNames.length && compareName(i, removedNames[r]) > 0) {
+                r += 1;
+            }
+            if (cmp == 0 || r == removedNames.length
+                || compareName(i, removedNames[r]) != 0) {
+                if (cmp == 0) {
+                    String name = new String(addedNames[a - 1], StandardCharsets.UTF_8);
+                    out.add(names, offsets[i], offsets[i + 1] - offsets[i],
+                            added.get(name));
+                } else {
+                    out.add(names, offsets[i], offsets[i + 1] - offsets[i],
+                            hashes, i * HASH_BYTES);
+                }
+            }
+            i += 1;
+        }
+        return out.build();
+    }
+
+    @Override
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        return name instanceof String && find((String) name) >= 0;
+    }
+
+    @Override
+    public String get(Object name) {
+        if (!(name instanceof String)) {
+            return null;
+        }
+        int i = find((String) name);
+        return i < 0 ? null : hash(i);
+    }
+
+    /** Returns the position of NAME, or -1 if it is not in this table. */
+    int find(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareName(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the name at position I. */
+    String name(int i) {
+        return new String(names, offsets[i], offsets[i + 1] - offsets[i],
+                          StandardCharsets.UTF_8);
+    }
+
+    /** Returns the hash at position I, in hex. */
+    String hash(int i) {
+        char[] hex = new char[HASH_BYTES * 2];
+        for (int k = 0; k < HASH_BYTES; k += 1) {
+            int b = hashes[i * HASH_BYTES + k] & 0xff;
+            hex[2 * k] = Character.forDigit(b >>> 4, 16);
+            hex[2 * k + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
+    /** Compares the name at position I with the UTF-8 bytes KEY. */
+    private int compareName(int i, byte[] key) {
+        return Arrays.compareUnsigned(names, offsets[i], offsets[i + 1],
+                                      key, 0, key.length);
+    }
+
+    /** Compares the name at position I with the name at position J of
+     *  OTHER. */
+    private int compareName(int i, FileTable other, int j) {
+        return Arrays.compareUnsigned(names, offsets[i], offsets[i + 1],
+                                      other.names, other.offsets[j],
+                                      other.offsets[j + 1]);
+    }
+
+    /** Returns true if the hash at position I is the one at position J of
+     *  OTHER. */
+    private boolean sameHash(int i, FileTable other, int j) {
+        return Arrays.equals(hashes, i * HASH_BYTES, (i + 1) * HASH_BYTES,
+                             other.hashes, j * HASH_BYTES, (j + 1) * HASH_BYTES);
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public int size() {
+                return FileTable.this.size();
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size();
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        next += 1;
+                        return new SimpleImmutableEntry<>(name(next - 1),
+                                                          hash(next - 1));
+                    }
+                };
+            }
+        };
+    }
+
+    /** Walks several tables at once, visiting every name in any of them in
+     *  order, as a merge join. At each name, position(T) is where the name
+     *  is in table T, or -1. */
+    static final class Join {
+        private final FileTable[] tables;
+        private final int[] next;
+        private final int[] current;
+
+        Join(FileTable... tables) {
+            this.tables = tables;
+            next = new int[tables.length];
+            current = new int[tables.length];
+        }
+
+        /** Moves to the next name, returning false if there is none. */
+        boolean next() {
+            int first = -1;
+            for (int t = 0; t < tables.length; t += 1) {
+                if (next[t] < tables[t].size() && (first < 0
+                    || tables[t].compareName(next[t], tables[first], next[first]) < 0)) {
+                    first = t;
+                }
+            }
+            if (first < 0) {
+                return false;
+            }
+            int at = next[first];
+            for (int t = 0; t < tables.length; t += 1) {
+                if (next[t] < tables[t].size()
+                    && tables[t].compareName(next[t], tables[first], at) == 0) {
+                    current[t] = next[t];
+                    next[t] += 1;
+                } else {
+                    current[t] = -1;
+                }
+            }
+            return true;
+        }
+
+        /** Returns the position of the current name in table T, or -1. */
+        int position(int t) {
+            return current[t];
+        }
+
+        /** Returns true if table T has the current name. */
+        boolean has(int t) {
+            return current[t] >= 0;
+        }
+
+        /** Returns true if tables T and U both lack the current name or
+         *  both have it with the same hash. */
+        boolean same(int t, int u) {
+            if (current[t] < 0 || current[u] < 0) {
+                return current[t] == current[u];
+            }
+            return tables[t].sameHash(current[t], tables[u], current[u]);
+        }
+
+        /** Returns the current name. */
+        String name() {
+            for (int t = 0; t < tables.length; t += 1) {
+                if (current[t] >= 0) {
+                    return tables[t].name(current[t]);
+                }
+            }
+            throw new NoSuchElementException();
+        }
+
+        /** Returns the hash of the current name in table T, or null. */
+        String hash(int t) {
+            return current[t] < 0 ? null : tables[t].hash(current[t]);
+        }
+    }
+
+    /** Returns the UTF-8 encodings of NAMES, sorted. */
+    private static byte[][] encodeSorted(Set<String> names) {
+        byte[][] result = new byte[names.size()][];
+        int i = 0;
+        for (String name : names) {
+            result[i] = name.getBytes(StandardCharsets.UTF_8);
+            i += 1;
+        }
+        Arrays.sort(result, Arrays::compareUnsigned);
+        return result;
+    }
+
+    /** Returns the total length of ARRAYS. */
+    private static int totalLength(byte[][] arrays) {
+        int result = 0;
+        for (byte[] a : arrays) {
+            result += a.length;
+        }
+        return result;
+    }
+
+    /** Collects the entries of a new table, in order. */
+    private static final class Builder {
+        private byte[] names;
+        private int[] offsets;
+        private byte[] hashes;
+        private int size;
+
+        Builder(int entries, int nameBytes) {
+            names = new byte[nameBytes];
+            offsets = new int[entries + 1];
+            hashes = new byte[entries * HASH_BYTES];
+        }
+
+        /** Appends the name NAME[OFF..OFF+LEN) with the hex hash HASH. */
+        void add(byte[] name, int off, int len, String hash) {
+            if (hash == null || hash.length() != HASH_BYTES * 2) {
+                throw new IllegalArgumentException("not a blob hash: " + hash);
+            }
+            byte[] packed = new byte[HASH_BYTES];
+            for (int k = 0; k < HASH_BYTES; k += 1) {
+                int hi = Character.digit(hash.charAt(2 * k), 16);
+                int lo = Character.digit(hash.charAt(2 * k + 1), 16);
+                if (hi < 0 || lo < 0) {
+                    throw new IllegalArgumentException("not a blob hash: " + hash);
+                }
+                packed[k] = (byte) (hi << 4 | lo);
+            }
+            add(name, off, len, packed, 0);
+        }
+
+        /** Appends the name NAME[OFF..OFF+LEN) with the packed hash at
+         *  HASH[HASHOFF]. */
+        void add(byte[] name, int off, int len, byte[] hash, int hashOff) {
+            System.arraycopy(name, off, names, offsets[size], len);
+            System.arraycopy(hash, hashOff, hashes, size * HASH_BYTES, HASH_BYTES);
+            offsets[size + 1] = offsets[size] + len;
+            size += 1;
+        }
+
+        FileTable build() {
+            return new FileTable(Arrays.copyOf(names, offsets[size]),
+                                 Arrays.copyOf(offsets, size + 1),
+                                 Arrays.copyOf(hashes, size * HASH_BYTES));
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** The fsck command: checks that the repository is intact.
+ *
+ *  Every blob is re-hashed and compared with its name, and every commit is
+ *  read and checked to hold the id it is stored under (ids are not
+ *  re-derived: those of commits written before FileTable depend on the
+ *  order of a HashMap). Objects are checked in parallel on the
+ *  fork/join pool, each streamed through the digest a buffer at a time, so
+ *  hashing keeps up with the disk and memory use does not grow with file
+ *  size. A chunked blob is checked by streaming its chunks, after making
+ *  sure they are all there. Then the parents and files of every commit,
+ *  the branches, HEAD, the stash and every stage are checked to refer only
+ *  to objects that exist (in a blob-less clone, missing blobs are
+ *  expected). Progress and throughput go to Output.err() while objects
+ *  are checked; the problems found, and a summary, go to Output.out().
+ *  Each run counts and collects into an Fsck object of its own.
+ *
+ *  @author Ting-Che Lin
+ */
+class Fsck {
+
+    /** Milliseconds between progress reports. */
+    private static final long PROGRESS_INTERVAL = 500;
+
+    /** Objects checked so far, and their size on disk in bytes. */
+    private final AtomicInteger checked = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    /** The problems found. */
+    private final Queue<String> problems = new ConcurrentLinkedQueue<>();
+
+    private Fsck() {
+    }
+
+    /** Runs fsck. */
+    static void check() {
+        new Fsck().run();
+    }
+
+    /** Checks the repository and prints what it found. */
+    private void run() {
+        long start = System.nanoTime();
+        List<String> blobs = objectsIn(GITLET_DIR);
+        List<String> commitIds = objectsIn(COMMIT_DIR);
+        int total = blobs.size() + commitIds.size();
+        Map<String, Commit> commits = new ConcurrentHashMap<>();
+
+        PrintStream err = Output.err();
+        Thread progress = new Thread(() -> reportProgress(err, total, start));
+        progress.setDaemon(true);
+        progress.start();
+        blobs.parallelStream().forEach(this::checkBlob);
+        commitIds.parallelStream().forEach(id -> {
+            Commit commit = checkCommit(id);
+            if (commit != null) {
+                commits.put(id, commit);
+            }
+        });
+        progress.interrupt();
+        try {
+            progress.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        Output.err().printf("Checking objects: 100%% (%d/%d), done.%n", total, total);
+
+        checkGraph(commits);
+        checkRefs();
+
+        new TreeSet<>(problems).forEach(Output.out()::println);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        message("Checked %d objects (%d bytes) in %.1f s, %.1f MB/s.", total,
+                bytes.get(), seconds, bytes.get() / 1e6 / Math.max(seconds, 1e-3));
+        if (problems.isEmpty()) {
+            message("No problems found.");
+        }
+    }
+
+    /** Re-hashes the blob HASH and records a problem unless its contents
+     *  hash to its name. */
+    private void checkBlob(String hash) {
+        File stored = join(GITLET_DIR, hash);
+        bytes.addAndGet(stored.length());
+        try {
+            boolean complete = true;
+            for (String chunk : ObjectStore.chunks(stored)) {
+                if (!join(GITLET_DIR, chunk).exists()) {
+                    problems.add("missing chunk " + chunk + " of blob " + hash);
+                    complete = false;
+                }
+            }
+            if (complete) {
+                try (InputStream in = ObjectStore.open(stored)) {
+                    String actual = sha1(in);
+                    if (!actual.equals(hash)) {
+                        problems.add("blob " + hash + " hashes to " + actual);
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException excp) {
+            problems.add("blob " + hash + " is unreadable: " + excp.getMessage());
+        } finally {
+            checked.incrementAndGet();
+        }
+    }
+
+    /** Reads the commit ID and returns it, or records a problem and returns
+     *  null if it is unreadable or holds a different id. */
+    private Commit checkCommit(String id) {
+        File stored = join(COMMIT_DIR, id);
+        bytes.addAndGet(stored.length());
+        try {
+            Commit commit = ObjectStore.readCommit(id);
+            if (!commit.getId().equals(id)) {
+                problems.add("commit " + id + " holds commit " + commit.getId());
+                return null;
+            }
+            return commit;
+        } catch (IllegalArgumentException excp) {
+            problems.add("commit " + id + " is unreadable: " + excp.getMessage());
+            return null;
+        } finally {
+            checked.incrementAndGet();
+        }
+    }
+
+    /** Records a problem for every parent or file of COMMITS that does not
+     *  exist. Parents beyond a shallow boundary are not expected to. */
+    private void checkGraph(Map<String, Commit> commits) {
+        boolean partial = Config.get(Remote.PROMISOR, null) != null;
+        commits.values().parallelStream().forEach(commit -> {
+            String id = commit.getId();
+            if (!Shallow.isBoundary(id)) {
+                for (String parent
+                         : new String[] {commit.getParent(), commit.getMergeprt2()}) {
+                    if (parent != null && !join(COMMIT_DIR, parent).exists()) {
+                        problems.add("commit " + id + " has missing parent " + parent);
+                    }
+                }
+            }
+            if (partial) {
+                return;
+            }
+            for (Map.Entry<String, String> file : commit.getFileList().entrySet()) {
+                if (!join(GITLET_DIR, file.getValue()).exists()) {
+                    problems.add("commit " + id + " has missing blob "
+                                 + file.getValue() + " for " + file.getKey());
+                }
+            }
+        });
+    }
+
+    /** Records a problem for every branch, stash entry or staged file that
+     *  refers to a missing object, and if HEAD names no branch. */
+    private void checkRefs() {
+        for (Map.Entry<String, String> ref : Refs.all().entrySet()) {
+            if (!join(COMMIT_DIR, ref.getValue()).exists()) {
+                problems.add("branch " + ref.getKey() + " points to missing commit "
+                             + ref.getValue());
+            }
+        }
+        String head = getCurrentBranch();
+        if (!Refs.exists(head)) {
+            problems.add("HEAD names missing branch " + head);
+        }
+        for (String id : Stash.commits()) {
+            if (!join(COMMIT_DIR, id).exists()) {
+                problems.add("stash refers to missing commit " + id);
+            }
+        }
+        for (Stage stage : Worktree.stages()) {
+            for (Map.Entry<String, String> file : stage.getFiles().entrySet()) {
+                if (!join(GITLET_DIR, file.getValue()).exists()) {
+                    problems.add("stage has missing blob " + file.getValue()
+                                 + " for " + file.getKey());
+                }
+            }
+        }
+    }
+
+    /** Prints to ERR, every PROGRESS_INTERVAL until interrupted, how many
+     *  of the TOTAL objects have been checked since START and how fast. */
+    private void reportProgress(PrintStream err, int total, long start) {
+        while (true) {
+            try {
+                Thread.sleep(PROGRESS_INTERVAL);
+            } catch (InterruptedException excp) {
+                return;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            int done = checked.get();
+            err.printf("Checking objects: %d%% (%d/%d), %.1f MB/s\r",
+                              total == 0 ? 100 : done * 100 / total, done,
+                              total, bytes.get() / 1e6 / seconds);
+        }
+    }
+
+    /** Returns the names of the objects in DIR. */
+    private static List<String> objectsIn(File dir) {
+        List<String> result = new ArrayList<>();
+        for (String name : plainFilenamesIn(dir)) {
+            if (GarbageCollector.isObjectName(name)) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,111 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** The gc command: deletes commits and blobs that nothing refers to.
+ *
+ *  Marking starts from every branch, the stage of every worktree and the
+ *  stash. The reachable commits are the OR of the starting commits'
+ *  reachability bitmaps, which needs no commit to be read; the commits are
+ *  then read in parallel on the fork/join pool only to collect their
+ *  blobs, and the manifests of chunked blobs to collect their chunks.
+ *  Sweeping then deletes every unmarked object whose file is older than
+ *  the grace period, so objects written by a command that is still
+ *  running are never removed.
+ *  Finally the loose refs are folded into the packed refs file and the
+ *  stored bitmaps are rebuilt for the new branch heads.
+ *
+ *  @author Ting-Che Lin
+ */
+class GarbageCollector {
+
+    /** Grace period in seconds, as a config key. */
+    static final String GRACE = "gc.grace";
+
+    /** Default grace period: two weeks. */
+    static final long DEFAULT_GRACE = 14 * 24 * 60 * 60;
+
+    /** Marks and sweeps the repository, sparing unreachable objects younger
+     *  than GRACESECONDS, and prints what was reclaimed. */
+    static void collect(long graceSeconds) {
+        long start = System.nanoTime();
+        Set<String> commits = ConcurrentHashMap.newKeySet();
+        Set<String> blobs = ConcurrentHashMap.newKeySet();
+
+        List<String> tips = new ArrayList<>(Refs.all().values());
+        tips.addAll(Stash.commits());
+        tips.addAll(Bisect.commits());
+        List<String> reachable = new ArrayList<>();
+        Reachability.reach(tips)
+            .forEach(p -> reachable.add(CommitGraph.at(p).id));
+        reachable.parallelStream().forEach(id -> {
+            commits.add(id);
+            blobs.addAll(ObjectStore.readCommit(id).getFileList().values());
+        });
+        for (Stage stage : Worktree.stages()) {
+            blobs.addAll(stage.getFiles().values());
+        }
+        blobs.addAll(Stash.blobs());
+        Set<String> chunks = ConcurrentHashMap.newKeySet();
+        blobs.parallelStream().forEach(blob -> {
+            File stored = join(GITLET_DIR, blob);
+            if (stored.exists()) {
+                chunks.addAll(ObjectStore.chunks(stored));
+            }
+        });
+        blobs.addAll(chunks);
+
+        long cutoff = System.currentTimeMillis() - graceSeconds * 1000;
+        long[] reclaimed = new long[2];
+        sweep(COMMIT_DIR, commits, cutoff, reclaimed);
+        sweep(GITLET_DIR, blobs, cutoff, reclaimed);
+        Refs.pack();
+        Reachability.build();
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        message("Removed %d objects, reclaimed %d bytes in %d ms.",
+                reclaimed[0], reclaimed[1], millis);
+    }
+
+    /** Deletes the objects in DIR that are not in LIVE and were last
+     *  modified before CUTOFF, adding the number of files and bytes removed
+     *  to RECLAIMED[0] and RECLAIMED[1]. */
+    private static void sweep(File dir, Set<String> live, long cutoff,
+                              long[] reclaimed) {
+        for (String name : plainFilenamesIn(dir)) {
+            if (!isObjectName(name) || live.contains(name)) {
+                continue;
+            }
+            File object = join(dir, name);
+            if (object.lastModified() >= cutoff) {
+                continue;
+            }
+            long size = object.length();
+            if (object.delete()) {
+                reclaimed[0] += 1;
+                reclaimed[1] += size;
+            }
+        }
+    }
+
+    /** Returns true if NAME looks like an object hash rather than one of
+     *  the bookkeeping files that share .gitlet with the blobs. */
+    static boolean isObjectName(String name) {
+        if (name.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i += 1) {
+            char c = name.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
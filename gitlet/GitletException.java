@@ -2,18 +2,19 @@ package gitlet;
 
 /** General exception indicating a Gitlet error.  For fatal errors, the
  *  result of .getMessage() is the error message to be printed.
+ *  Public, as GitletRepository callers catch it.
  *  @author P. N. Hilfinger
  */
-class GitletException extends RuntimeException {
+public class GitletException extends RuntimeException {
 
 
     /** A GitletException with no message. */
-    GitletException() {
+    public GitletException() {
         super();
     }
 
     /** A GitletException MSG as its message. */
-    GitletException(String msg) {
+    public GitletException(String msg) {
         super(msg);
     }
 
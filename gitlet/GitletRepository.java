@@ -0,0 +1,395 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** An in-process API to gitlet repositories, for programs that would
+ *  otherwise start a JVM per command.
+ *
+ *  The rest of the package keeps its state in static fields derived from
+ *  the working directory, one repository per JVM. Instead of threading a
+ *  repository object through all of it, each opened repository gets its
+ *  own class loader holding a private copy of the package, set up for that
+ *  repository's directory. This class (with its nested result types) and
+ *  GitletException are shared between the loaders, so results and errors
+ *  cross over as ordinary objects. close() drops the loader.
+ *
+ *  The methods return structured results, computed by Api, which the
+ *  command line (Main) prints from as well; run() reaches the commands that
+ *  have no structured form, and returns what they print, collected for
+ *  that call only. Calls on one repository are serialized, as the
+ *  package's caches are not thread-safe; calls on different repositories
+ *  run in parallel. Other processes using the same repository are
+ *  coordinated with as usual through RepoLock, and caches are dropped at
+ *  the start of every call. Commands report failure by throwing
+ *  GitletException with the message the command line would print; nothing
+ *  calls System.exit.
+ *
+ *  @author Ting-Che Lin
+ */
+public final class GitletRepository implements AutoCloseable {
+
+    /** The open repositories, by canonical working directory. */
+    private static final Map<File, GitletRepository> OPEN = new HashMap<>();
+
+    /** The directory of the repository whose classes are being set up on
+     *  this thread, or null. */
+    private static final ThreadLocal<File> OPENING = new ThreadLocal<>();
+
+    /** The working directory of this repository. */
+    private final File directory;
+
+    /** The class loader holding this repository's copy of the package. */
+    private final RepositoryLoader loader;
+
+    /** This repository's copy of Api. */
+    private final Class<?> api;
+
+    /** True once this repository is closed. */
+    private boolean closed;
+
+    /** The output of a command. */
+    public static final class Result {
+        private final String output;
+
+        Result(String output) {
+            this.output = output;
+        }
+
+        /** Returns everything the command printed. */
+        public String output() {
+            return output;
+        }
+
+        /** Returns the lines the command printed. */
+        public List<String> lines() {
+            return output.isEmpty() ? List.of() : Arrays.asList(output.split("\n"));
+        }
+    }
+
+    /** The state of the working tree, as status shows it. */
+    public static final class Status {
+        private final String currentBranch;
+        private final List<String> branches;
+        private final List<String> staged;
+        private final List<String> removed;
+        private final Map<String, String> modified;
+        private final List<String> untracked;
+
+        /** Used by Api. */
+        public Status(String currentBranch, List<String> branches,
+                      List<String> staged, List<String> removed,
+                      Map<String, String> modified, List<String> untracked) {
+            this.currentBranch = currentBranch;
+            this.branches = Collections.unmodifiableList(branches);
+            this.staged = Collections.unmodifiableList(staged);
+            this.removed = Collections.unmodifiableList(removed);
+            this.modified = Collections.unmodifiableMap(modified);
+            this.untracked = Collections.unmodifiableList(untracked);
+        }
+
+        public String currentBranch() {
+            return currentBranch;
+        }
+
+        /** Returns every branch, in order. */
+        public List<String> branches() {
+            return branches;
+        }
+
+        /** Returns the files staged for addition. */
+        public List<String> staged() {
+            return staged;
+        }
+
+        /** Returns the files staged for removal. */
+        public List<String> removed() {
+            return removed;
+        }
+
+        /** Returns the tracked files whose working copy differs from the
+         *  head commit and is not staged, each mapped to "modified" or
+         *  "deleted". */
+        public Map<String, String> modified() {
+            return modified;
+        }
+
+        /** Returns the files neither the head commit nor the stage tracks. */
+        public List<String> untracked() {
+            return untracked;
+        }
+    }
+
+    /** One commit, as log shows it. */
+    public static final class LogEntry {
+        private final String id;
+        private final String parent;
+        private final String mergeParent;
+        private final String timestamp;
+        private final String message;
+
+        /** Used by Api; the arguments are as Commit has them. */
+        public LogEntry(String id, String parent, String mergeParent,
+                        String timestamp, String message) {
+            this.id = id;
+            this.parent = parent;
+            this.mergeParent = mergeParent;
+            this.timestamp = timestamp;
+            this.message = message;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        /** Returns the first parent, or null for the initial commit. */
+        public String parent() {
+            return parent;
+        }
+
+        /** Returns the second parent of a merge, or null. */
+        public String mergeParent() {
+            return mergeParent;
+        }
+
+        public String timestamp() {
+            return timestamp;
+        }
+
+        public String message() {
+            return message;
+        }
+    }
+
+    /** Loads the package's classes from the code source of this class,
+     *  except for the shared ones, which come from the parent. */
+    private static final class RepositoryLoader extends URLClassLoader {
+        RepositoryLoader(URL source, ClassLoader parent) {
+            super(new URL[] {source}, parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve)
+            throws ClassNotFoundException {
+            if (!name.startsWith("gitlet.") || isShared(name)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    c = findClass(name);
+                }
+                if (resolve) {
+                    resolveClass(c);
+                }
+                return c;
+            }
+        }
+
+        private static boolean isShared(String name) {
+            return name.startsWith(GitletRepository.class.getName())
+                || name.equals(GitletException.class.getName());
+        }
+    }
+
+    private GitletRepository(File directory) {
+        this.directory = directory;
+        URL source = GitletRepository.class.getProtectionDomain()
+            .getCodeSource().getLocation();
+        loader = new RepositoryLoader(source, GitletRepository.class.getClassLoader());
+        OPENING.set(directory);
+        try {
+            api = Class.forName(Api.class.getName(), true, loader);
+            Class.forName(Repository.class.getName(), true, loader);
+        } catch (ClassNotFoundException excp) {
+            throw new IllegalStateException(excp);
+        } finally {
+            OPENING.remove();
+        }
+    }
+
+    /** Returns the repository whose working directory is DIRECTORY, which
+     *  need not be initialized yet. Opening the same directory again
+     *  returns the same object until it is closed. */
+    public static GitletRepository open(File directory) {
+        File dir;
+        try {
+            dir = directory.getCanonicalFile();
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+        if (!dir.isDirectory()) {
+            throw new GitletException("Not a directory: " + directory);
+        }
+        synchronized (OPEN) {
+            return OPEN.computeIfAbsent(dir, GitletRepository::new);
+        }
+    }
+
+    /** Returns the working directory gitlet runs in: the one a repository
+     *  is being opened on, on the thread opening it, and otherwise the one
+     *  the JVM started in. Used once per class loader by Repository. */
+    public static File workingDirectory() {
+        File opening = OPENING.get();
+        return opening != null ? opening : new File(System.getProperty("user.dir"));
+    }
+
+    /** Returns the working directory of this repository. */
+    public File directory() {
+        return directory;
+    }
+
+    /** Runs the command in ARGS (such as "commit", "message") as the
+     *  command line would, and returns what it printed. */
+    public synchronized Result run(String... args) {
+        return new Result((String) call("run", (Object) args));
+    }
+
+    /** Runs init. */
+    public synchronized void init() {
+        call("init");
+    }
+
+    /** Stages FILENAME. */
+    public synchronized void add(String fileName) {
+        call("add", fileName);
+    }
+
+    /** Unstages FILENAME, or stages its removal. */
+    public synchronized void remove(String fileName) {
+        call("remove", fileName);
+    }
+
+    /** Commits the stage with MESSAGE and returns the new commit's id. */
+    public synchronized String commit(String message) {
+        return (String) call("commit", message);
+    }
+
+    /** Creates BRANCH at the head commit. */
+    public synchronized void branch(String branch) {
+        call("branch", branch);
+    }
+
+    /** Checks out BRANCH. */
+    public synchronized void checkout(String branch) {
+        call("checkout", branch);
+    }
+
+    /** Returns the state of the working tree. */
+    public synchronized Status status() {
+        return (Status) call("status");
+    }
+
+    /** Returns the head commit id. */
+    public synchronized String head() {
+        return (String) call("head");
+    }
+
+    /** Returns the current branch. */
+    public synchronized String currentBranch() {
+        return (String) call("currentBranch");
+    }
+
+    /** Returns every branch and the commit it points to. */
+    @SuppressWarnings("unchecked")
+    public synchronized Map<String, String> branches() {
+        return (Map<String, String>) call("branches");
+    }
+
+    /** Returns the files of the commit whose id starts with COMMIT, mapped
+     *  to their blob hashes. */
+    @SuppressWarnings("unchecked")
+    public synchronized Map<String, String> files(String commit) {
+        return (Map<String, String>) call("files", commit);
+    }
+
+    /** Returns the contents of the blob HASH. */
+    public synchronized byte[] blob(String hash) {
+        return (byte[]) call("blob", hash);
+    }
+
+    /** Returns the first-parent history of the head commit, newest
+     *  first. */
+    public List<LogEntry> log() {
+        return log("");
+    }
+
+    /** Returns the first-parent history of the commit whose id starts with
+     *  COMMIT, newest first. */
+    @SuppressWarnings("unchecked")
+    public synchronized List<LogEntry> log(String commit) {
+        return (List<LogEntry>) call("log", commit);
+    }
+
+    /** Returns every commit in the repository. */
+    @SuppressWarnings("unchecked")
+    public synchronized List<LogEntry> globalLog() {
+        return (List<LogEntry>) call("globalLog");
+    }
+
+    /** Returns the ids of the commits whose message is MESSAGE. */
+    @SuppressWarnings("unchecked")
+    public synchronized List<String> find(String message) {
+        return (List<String>) call("find", message);
+    }
+
+    /** Closes this repository: releases its lock if a failed call left it
+     *  held, and drops its class loader. Opening the directory again gives
+     *  a new repository object. */
+    @Override
+    public void close() {
+        synchronized (OPEN) {
+            OPEN.remove(directory, this);
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            call("close");
+            closed = true;
+            try {
+                loader.close();
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+        }
+    }
+
+    /** Calls this repository's Api.METHOD with ARGS, passing on what it
+     *  throws. */
+    private Object call(String method, Object... args) {
+        if (closed) {
+            throw new IllegalStateException("Repository is closed: " + directory);
+        }
+        Class<?>[] types = new Class<?>[args.length];
+        for (int i = 0; i < args.length; i += 1) {
+            types[i] = args[i].getClass();
+        }
+        try {
+            Method m = api.getDeclaredMethod(method, types);
+            m.setAccessible(true);
+            return m.invoke(null, args);
+        } catch (InvocationTargetException excp) {
+            Throwable cause = excp.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (ReflectiveOperationException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** A small write-ahead journal that groups the writes of one gitlet command
+ *  to its mutable files (branch refs, current_branch, the stage, the index
+ *  appends, ...) into a single transaction.
+ *
+ *  While a transaction is open, every write to a file inside .gitlet is
+ *  buffered here instead of going to disk, and reads of those files see the
+ *  buffered contents. Appends (used by the append-only indexes) are
+ *  buffered the same way. On commit the whole batch is written to the journal
+ *  file and synced once; only then are the real files replaced (each by an
+ *  atomic rename) and flushed together. If the process or machine dies
+ *  halfway through, the next gitlet invocation replays the journal.
+ *
+ *  Blobs and commits are immutable and named by their contents, so
+ *  ObjectStore writes them straight to their final names instead, and only
+ *  tells the open transaction about them (see syncOnCommit). Commit syncs
+ *  them before the journal, so nothing the journal names can be lost; if
+ *  the transaction is dropped, they are unreachable, and gc removes them.
+ *
+ *  @author Ting-Che Lin
+ */
+class Journal {
+
+    /** The journal file. */
+    static final File JOURNAL = join(GITLET_DIR, "journal");
+
+    /** Marks the start of a journal record. */
+    private static final int MAGIC = 0x676c6a32;
+
+    /** Journal entry kinds. */
+    private static final int WRITE = 0;
+    private static final int APPEND = 1;
+
+    /** The writes of one transaction: whole-file replacements and
+     *  appends, keyed by absolute path, the Stats operation each
+     *  replacement is counted as, and the objects written meanwhile, which
+     *  may be added to from several threads. */
+    private static class Batch {
+        final LinkedHashMap<String, byte[]> writes = new LinkedHashMap<>();
+        final HashMap<String, Stats.Op> ops = new HashMap<>();
+        final LinkedHashMap<String, ByteArrayOutputStream> appends =
+            new LinkedHashMap<>();
+        final Set<File> objects = ConcurrentHashMap.newKeySet();
+
+        boolean isEmpty() {
+            return writes.isEmpty() && appends.isEmpty();
+        }
+    }
+
+    /** The open transaction, or null. */
+    private static Batch pending;
+
+    /** Opens a transaction. Transactions do not nest. */
+    static void begin() {
+        if (pending != null) {
+            throw error("Transaction already open.");
+        }
+        pending = new Batch();
+    }
+
+    /** Returns true if a transaction is open. */
+    static boolean isOpen() {
+        return pending != null;
+    }
+
+    /** Buffers CONTENTS as the new contents of FILE if a transaction is open
+     *  and FILE lives inside .gitlet, to be counted in Stats as OP when
+     *  commit writes it. Returns false if the caller should write FILE
+     *  itself. */
+    static boolean record(File file, byte[] contents, Stats.Op op) {
+        if (pending == null || !isInsideGitletDir(file)) {
+            return false;
+        }
+        pending.appends.remove(file.getAbsolutePath());
+        pending.writes.put(file.getAbsolutePath(), contents);
+        pending.ops.put(file.getAbsolutePath(), op);
+        return true;
+    }
+
+    /** Notes that the object FILE, already written in place, must be
+     *  durable before the open transaction commits. Does nothing if no
+     *  transaction is open. Safe to call from several threads. */
+    static void syncOnCommit(File file) {
+        Batch batch = pending;
+        if (batch != null) {
+            batch.objects.add(file);
+        }
+    }
+
+    /** Buffers CONTENTS to be appended to FILE if a transaction is open and
+     *  FILE lives inside .gitlet. Returns false if the caller should append
+     *  itself. Replaying a journal may append the same bytes twice, so
+     *  appended files must treat a repeated record as one. */
+    static boolean recordAppend(File file, byte[] contents) {
+        if (pending == null || !isInsideGitletDir(file)) {
+            return false;
+        }
+        String path = file.getAbsolutePath();
+        byte[] written = pending.writes.get(path);
+        if (written != null) {
+            byte[] joined = Arrays.copyOf(written, written.length + contents.length);
+            System.arraycopy(contents, 0, joined, written.length, contents.length);
+            pending.writes.put(path, joined);
+        } else {
+            pending.appends.computeIfAbsent(path, k -> new ByteArrayOutputStream())
+                .writeBytes(contents);
+        }
+        return true;
+    }
+
+    /** Returns the contents FILE will have once the open transaction
+     *  commits, or null if the transaction (if any) has not touched it. */
+    static byte[] pending(File file) {
+        if (pending == null) {
+            return null;
+        }
+        String path = file.getAbsolutePath();
+        byte[] written = pending.writes.get(path);
+        if (written != null) {
+            return written;
+        }
+        ByteArrayOutputStream appended = pending.appends.get(path);
+        if (appended == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            if (file.isFile()) {
+                result.write(Files.readAllBytes(file.toPath()));
+            }
+            result.write(appended.toByteArray());
+            return result.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Makes every write of the open transaction durable and visible, then
+     *  closes the transaction. */
+    static void commit() {
+        Batch batch = pending;
+        pending = null;
+        if (batch == null) {
+            return;
+        }
+        try {
+            // the journal may name these objects, so they go first
+            syncAll(batch.objects);
+            if (batch.isEmpty()) {
+                return;
+            }
+            writeJournal(batch);
+            apply(batch);
+            Files.delete(JOURNAL.toPath());
+            fsync(GITLET_DIR);
+        } catch (IOException excp) {
+            throw error("Could not commit transaction: %s", excp.getMessage());
+        }
+    }
+
+    /** Drops every write of the open transaction. */
+    static void abort() {
+        pending = null;
+    }
+
+    /** Replays a journal left behind by an interrupted command. A journal
+     *  whose checksum does not match was never committed and is discarded. */
+    static void recover() {
+        if (!JOURNAL.exists()) {
+            return;
+        }
+        Batch batch = readJournal();
+        try {
+            if (batch != null) {
+                apply(batch);
+            }
+            Files.delete(JOURNAL.toPath());
+            fsync(GITLET_DIR);
+        } catch (IOException excp) {
+            throw error("Could not recover journal: %s", excp.getMessage());
+        }
+    }
+
+    /** Writes BATCH to the journal file as a single checksummed record and
+     *  syncs it. This sync is the commit point of the transaction. */
+    private static void writeJournal(Batch batch) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(batch.writes.size() + batch.appends.size());
+        for (Map.Entry<String, byte[]> entry : batch.writes.entrySet()) {
+            writeEntry(out, WRITE, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, ByteArrayOutputStream> entry
+                 : batch.appends.entrySet()) {
+            writeEntry(out, APPEND, entry.getKey(), entry.getValue().toByteArray());
+        }
+        out.close();
+        byte[] bytes = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream rec = new DataOutputStream(record);
+        rec.writeInt(MAGIC);
+        rec.write(bytes);
+        rec.writeLong(crc.getValue());
+        rec.close();
+
+        Files.write(JOURNAL.toPath(), record.toByteArray());
+        fsync(JOURNAL);
+    }
+
+    /** Writes one journal entry to OUT. */
+    private static void writeEntry(DataOutputStream out, int kind, String path,
+                                   byte[] contents) throws IOException {
+        out.writeByte(kind);
+        out.writeUTF(path);
+        out.writeInt(contents.length);
+        out.write(contents);
+    }
+
+    /** Returns the batch recorded in the journal file, or null if the
+     *  record is incomplete or corrupt. */
+    private static Batch readJournal() {
+        byte[] bytes = readContents(JOURNAL);
+        if (bytes.length < 4 + 4 + 8) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 4, bytes.length - 12);
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            Batch batch = new Batch();
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                int kind = in.readByte();
+                String path = in.readUTF();
+                byte[] contents = new byte[in.readInt()];
+                in.readFully(contents);
+                if (kind == APPEND) {
+                    ByteArrayOutputStream appended = new ByteArrayOutputStream();
+                    appended.writeBytes(contents);
+                    batch.appends.put(path, appended);
+                } else {
+                    batch.writes.put(path, contents);
+                }
+            }
+            if (in.readLong() != crc.getValue()) {
+                return null;
+            }
+            return batch;
+        } catch (EOFException excp) {
+            return null;
+        } catch (IOException excp) {
+            throw error("Could not read journal: %s", excp.getMessage());
+        }
+    }
+
+    /** Installs BATCH, replacing files with atomic renames and appending
+     *  in place, then flushes every touched file and directory in one pass
+     *  at the end rather than one per write. Each replacement is counted in
+     *  Stats as the operation recorded for it; a replayed journal records
+     *  none, as its writes belong to the command that was interrupted. */
+    private static void apply(Batch batch) throws IOException {
+        LinkedHashSet<File> touched = new LinkedHashSet<>();
+        for (Map.Entry<String, byte[]> entry : batch.writes.entrySet()) {
+            File file = new File(entry.getKey());
+            long start = Stats.start();
+            atomicWrite(file, entry.getValue());
+            Stats.Op op = batch.ops.get(entry.getKey());
+            if (op != null) {
+                Stats.record(op, start, entry.getValue().length);
+            }
+            touched.add(file);
+        }
+        for (Map.Entry<String, ByteArrayOutputStream> entry
+                 : batch.appends.entrySet()) {
+            File file = new File(entry.getKey());
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), entry.getValue().toByteArray(),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            touched.add(file);
+        }
+        syncAll(touched);
+    }
+
+    /** Flushes FILES, then each of their directories once. */
+    private static void syncAll(Collection<File> files) {
+        LinkedHashSet<File> dirs = new LinkedHashSet<>();
+        for (File file : files) {
+            fsync(file);
+            dirs.add(file.getParentFile());
+        }
+        for (File dir : dirs) {
+            fsync(dir);
+        }
+    }
+
+    /** Forces FILE (a regular file or a directory) to stable storage.
+     *  Platforms that cannot sync directories are silently skipped. */
+    static void fsync(File file) {
+        try (FileChannel ch = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException excp) {
+            if (!file.isDirectory()) {
+                throw error("Could not sync %s", file.getPath());
+            }
+        }
+    }
+
+    /** Returns true if FILE is inside the .gitlet directory. */
+    private static boolean isInsideGitletDir(File file) {
+        return file.getAbsolutePath().startsWith(
+            GITLET_DIR.getAbsolutePath() + File.separator);
+    }
+}
@@ -16,170 +16,314 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--stats")) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+            Stats.enable();
+            Runtime.getRuntime().addShutdownHook(
+                new Thread(() -> Stats.printSummary(System.err)));
+        }
+        try {
+            execute(args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            System.exit(0);
+        }
+    }
+
+    /** Runs the command in ARGS against the repository in CWD, holding the
+     *  repository lock or in a read snapshot as the command needs (the
+     *  commands Api implements do that themselves), and prints its result.
+     *  GitletRepository.run calls it too. Throws GitletException, whose
+     *  message is meant for the user, if the command fails; the writes of
+     *  a transaction it left open are dropped. */
+    static void execute(String[] args) {
         //empty command
         if (args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw error("Please enter a command.");
         }
         String firstArg = args[0];
 
         //check if initialized
-        if (!firstArg.equals("init") && !GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory");
-            System.exit(0);
+        if (!firstArg.equals("init") && !firstArg.equals("clone")
+                && !GITLET_DIR.exists()) {
+            throw error("Not in an initialized Gitlet directory");
+        }
+
+        String[] command = args;
+        try {
+            if (firstArg.equals("init") || firstArg.equals("clone")
+                    || UNLOCKED_COMMANDS.contains(firstArg)
+                    || API_COMMANDS.contains(firstArg)) {
+                RepoLock.invalidateCaches();
+                runCommand(command);
+            } else if (READ_ONLY_COMMANDS.contains(firstArg)) {
+                RepoLock.readSnapshot(() -> runCommand(command));
+            } else {
+                RepoLock.acquire();
+                try {
+                    runCommand(args);
+                } finally {
+                    Journal.abort();
+                    RepoLock.release();
+                }
+            }
+        } finally {
+            Journal.abort();
+        }
+    }
+
+    /** Commands that never modify the repository (blame only adds to its
+     *  cache, which depends on nothing but immutable objects). They run
+     *  without taking the repository lock. */
+    private static final Set<String> READ_ONLY_COMMANDS = Set.of("blame");
+
+    /** Commands that print what an Api method returns; the method takes the
+     *  lock or a read snapshot itself. */
+    private static final Set<String> API_COMMANDS =
+        Set.of("add", "rm", "commit", "log", "global-log", "find", "status");
+
+    /** Commands that run without the lock and without snapshot retries:
+     *  diff streams its output and only reads immutable objects once the
+     *  commits to compare are known, and watch runs until it is killed and
+     *  only writes its own log. */
+    private static final Set<String> UNLOCKED_COMMANDS = Set.of("diff", "watch");
+
+    /** Fails if FILENAME is outside the sparse checkout. */
+    private static void checkSparse(String fileName) {
+        if (!Sparse.includes(fileName)) {
+            throw error("File is outside the sparse checkout.");
+        }
+    }
+
+    /** Fails unless ARGS has exactly N entries. */
+    private static void checkOperands(String[] args, int n) {
+        if (args.length != n) {
+            throw error("Incorrect operands.");
+        }
+    }
+
+    /** Prints STATUS as the status command shows it. */
+    private static void printStatus(GitletRepository.Status status) {
+        Output.out().println("=== Branches ===");
+        for (String branch : status.branches()) {
+            if (branch.equals(status.currentBranch())) {
+                Output.out().println("*" + branch);
+            } else {
+                Output.out().println(branch);
+            }
+        }
+        Output.out().println();
+        Output.out().println("=== Staged Files ===");
+        status.staged().forEach(Output.out()::println);
+        Output.out().println();
+        Output.out().println("=== Removed Files ===");
+        status.removed().forEach(Output.out()::println);
+        Output.out().println();
+        Output.out().println("=== Modifications Not Staged For Commit === ");
+        for (Map.Entry<String, String> file : status.modified().entrySet()) {
+            Output.out().println(file.getKey() + " (" + file.getValue() + ")");
         }
+        Output.out().println();
+        Output.out().println("=== Untracked Files ===");
+        status.untracked().forEach(Output.out()::println);
+        Output.out().println();
+    }
 
+    /** Runs the command in ARGS against the repository. */
+    private static void runCommand(String[] args) {
+        String firstArg = args[0];
         switch (firstArg) {
             default:
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+                throw error("No command with that name exists.");
 
             case "init":
                 if(args.length != 1) {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                    throw error("Incorrect operands.");
                 }
                 if (GITLET_DIR.exists()) {
-                    System.out.println("A Gitlet version-control system"
+                    throw new GitletException("A Gitlet version-control system"
                           + " already exists in the current directory.");
-                    System.exit(0);
                 }
                 setupPersistence();
+                Journal.begin();
                 Commit initial = new Commit("initial commit", null, null);
                 writeCommit(initial);
+                Journal.commit();
                 break;
 
             case "add":
                 if (args.length != 2) {
-                    System.out.println("Incorrect operands.");
-                }
-                if (!join(CWD, args[1]).exists()) {
-                    System.out.println("File does not exist.");
-                    System.exit(0);
+                    Output.out().println("Incorrect operands.");
                 }
-                Stage stage2 = readObject(STAGE, Stage.class);
-                stage2.addFile(args[1]);
-                writeObject(STAGE, stage2);
+                Api.add(args[1]);
                 break;
 
             case "commit":
-                Stage stage = readObject(STAGE, Stage.class);
+                Api.commit(args.length > 1 ? args[1] : "");
+                break;
 
-                if (stage.getFiles().size() == 0
-                        && stage.getRemovals().size() == 0) { //if no files are staged
-                    System.out.println("No changes added to the commit.");
-                    System.exit(0);
+            case "rm":
+                Api.remove(args[1]);
+
+                break;
+
+            case "log":
+                if (args.length == 1) {
+                    Api.log("").forEach(Commit::printCommit);
+                } else if (args.length == 3 && args[1].equals("--")) {
+                    RepoLock.readSnapshot(
+                        () -> Commit.logPath(getHeadCommit(), args[2], false));
+                } else if (args.length == 4 && args[1].equals("--full-history")
+                        && args[2].equals("--")) {
+                    RepoLock.readSnapshot(
+                        () -> Commit.logPath(getHeadCommit(), args[3], true));
+                } else {
+                    throw error("Incorrect operands.");
                 }
+                break;
 
+            case "blame":
+                checkOperands(args, 2);
+                Blame.blame(args[1]);
+                break;
+
+            case "global-log":
+                Api.globalLog().forEach(Commit::printCommit);
+                break;
 
-                if (args[1].length() == 0) { // if no commit msg given
-                    System.out.println("Please enter a commit message.");
+            case "find":
+                List<String> found = Api.find(args[1]);
+                if (found.isEmpty()) {
+                    Output.out().println("Found no commit with that message");
                 }
+                found.forEach(Output.out()::println);
+                break;
 
-                Commit currentCommit = new Commit(args[1], getHeadCommit(), stage);
-                writeCommit(currentCommit);
-                stage.clearStage();
-                stage.clearRemovals();
-                writeObject(STAGE, stage);
+            case "config":
+                if (args.length == 2) {
+                    String value = Config.get(args[1], null);
+                    if (value != null) {
+                        Output.out().println(value);
+                    }
+                } else if (args.length == 3) {
+                    Config.set(args[1], args[2]);
+                } else {
+                    throw error("Incorrect operands.");
+                }
                 break;
 
-            case "rm":
-                Stage stage1 = readObject(STAGE, Stage.class);
-                Commit rmCommit = readObject(join(COMMIT_DIR,getHeadCommit()), Commit.class);
-                if (!stage1.getFiles().containsKey(args[1])
-                        && !stage1.getRemovals().containsKey(args[1])
-                            && !rmCommit.getFileList().containsKey(args[1])) {
-                    System.out.println("No reason to remove the file.");
-                    System.exit(0);
+            case "gc":
+                long grace = Config.getInt(GarbageCollector.GRACE,
+                        (int) GarbageCollector.DEFAULT_GRACE);
+                if (args.length == 2 && args[1].startsWith("--prune=")) {
+                    String prune = args[1].substring("--prune=".length());
+                    grace = prune.equals("now") ? 0 : Long.parseLong(prune);
+                } else if (args.length != 1) {
+                    throw error("Incorrect operands.");
                 }
-                stage1.removeFile(args[1]);
-                writeObject(STAGE, stage1);
+                GarbageCollector.collect(grace);
+                break;
 
+            case "fsck":
+                checkOperands(args, 1);
+                Fsck.check();
                 break;
 
-            case "log":
-                Commit c = readObject(join(COMMIT_DIR, getHeadCommit()), Commit.class);
-                Commit.logCommits(c);
+            case "fast-import":
+                checkOperands(args, 1);
+                FastImport.run(System.in);
                 break;
 
-            case "global-log":
-                Commit.globalLogCommits();
+            case "diff":
+                Diff.diffCommand(args);
                 break;
 
-            case "find":
-                if (!Commit.find(args[1])) {
-                    System.out.println("Found no commit with that message");
-                }
+            case "watch":
+                Watcher.watch();
                 break;
 
-            case "status":
-                //===========================================================
-                System.out.println("=== Branches ===");
-                List<String> branchesList = plainFilenamesIn(BRANCHES_DIR);
-                for (String branch : branchesList) {
-                    if (getCurrentBranch().equals(branch)) {
-                        System.out.println("*" + branch);
+            case "clone":
+                if (GITLET_DIR.exists()) {
+                    throw new GitletException("A Gitlet version-control system"
+                          + " already exists in the current directory.");
+                }
+                int depth = 0;
+                boolean withBlobs = true;
+                for (int i = 2; i < args.length; i += 1) {
+                    if (args[i].equals("--depth") && i + 1 < args.length) {
+                        depth = Integer.parseInt(args[++i]);
+                    } else if (args[i].equals("--filter=blob:none")) {
+                        withBlobs = false;
                     } else {
-                        System.out.println(branch);
+                        throw error("Incorrect operands.");
                     }
                 }
-                System.out.println();
-                //============================================================
-                System.out.println("=== Staged Files ===");
-                Stage stage3 = readObject(STAGE, Stage.class);
-                for (Map.Entry<String, String> stagedFiles : stage3.getFiles().entrySet()) {
-                    System.out.println(stagedFiles.getKey());
-                }
-                System.out.println();
-                //=============================================================
-                System.out.println("=== Removed Files ===");
-                for (Map.Entry<String, String> removedFiles : stage3.getRemovals().entrySet()) {
-                    System.out.println(removedFiles.getKey());
-                }
-                System.out.println();
-                //=============================================================
-                System.out.println("=== Modifications Not Staged For Commit === ");
-                printModifiedFiles(getHeadCommit());
-                System.out.println();
-                //=============================================================
-                System.out.println("=== Untracked Files ===");
-                printUntrackedFiles(getHeadCommit());
-                System.out.println();
+                if (args.length < 2 || depth < 0) {
+                    throw error("Incorrect operands.");
+                }
+                Remote.cloneRepo(args[1], depth, withBlobs);
+                break;
+
+            case "add-remote":
+                checkOperands(args, 3);
+                Remote.addRemote(args[1], args[2]);
+                break;
+
+            case "rm-remote":
+                checkOperands(args, 2);
+                Remote.rmRemote(args[1]);
+                break;
+
+            case "push":
+                checkOperands(args, 3);
+                Remote.push(args[1], args[2]);
+                break;
+
+            case "fetch":
+                checkOperands(args, 3);
+                Remote.fetch(args[1], args[2]);
+                break;
+
+            case "pull":
+                checkOperands(args, 3);
+                Remote.fetch(args[1], args[2]);
+                runCommand(new String[] {"merge", args[1] + "/" + args[2]});
+                break;
+
+            case "status":
+                printStatus(Api.status());
                 break;
 
             case "checkout":
-                if (args[1].equals(getCurrentBranch()) && args.length == 2) {
-                    System.out.println("No need to checkout the current branch.");
-                    System.exit(0);
+                if (args.length == 2) {
+                    switchBranch(args[1]);
+                    break;
                 }
 
                 if (hasUntrackedFiles()) {
-                    System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                    System.exit(0);
+                    throw error("There is an untracked file in the way; delete it, or add and commit it first.");
                 }
 
                 if (args.length == 3) {
                     //Failure case
 
-                    Commit hc = readObject(join(COMMIT_DIR, getHeadCommit()), Commit.class);
+                    Commit hc = ObjectStore.readCommit(getHeadCommit());
                     if (!hc.getFileList().containsKey((args[2]))) {
-                       System.out.println("File does not exist in that commit.");
-                       System.exit(0);
+                       throw error("File does not exist in that commit.");
                     }
 
                     if(!args[1].equals("--")){
-                        System.out.println("Incorrect operands.");
-                        System.exit(0);
+                        throw error("Incorrect operands.");
                     }
 
+                    checkSparse(args[2]);
                     checkout(args[2], getHeadCommit());
                 }
 
                 else if (args.length == 4) {
                     //Failure cases
                     if (!args[2].equals("--")) {
-                        System.out.println("Incorrect operands.");
-                        System.exit(0);
+                        throw error("Incorrect operands.");
                     }
 
                     String commitName = "";
@@ -197,205 +341,303 @@ public class Main {
                     }
 
                     if(!join(COMMIT_DIR, commitName).exists()) {
-                        System.out.println("No commit with that id exists.");
-                        System.exit(0);
+                        throw error("No commit with that id exists.");
                     }
 
-                    Commit hc = readObject(join(COMMIT_DIR, commitName), Commit.class);
+                    Commit hc = ObjectStore.readCommit(commitName);
                     if (!hc.getFileList().containsKey(args[3])) {
-                        System.out.println("File does not exist in that commit.");
-                        System.exit(0);
+                        throw error("File does not exist in that commit.");
                     }
 
+                    checkSparse(args[3]);
                     checkout(args[3], commitName);
                 }
 
-                else if (args.length == 2) {
-                    if(!join(BRANCHES_DIR, args[1]).exists()) {
-                        System.out.println("No such branch exists.");
-                        System.exit(0);
-                    }
-
+                else {
+                    throw error("Incorrect operands.");
+                }
+                break;
 
-                    String branchCommitID = readObject(join(BRANCHES_DIR, args[1]), String.class);
+            case "branch":
+                if (args.length == 3 && args[1].equals("--contains")) {
+                    String containedID = resolveCommitId(args[2]);
+                    if (containedID == null) {
+                        throw error("No commit with that id exists.");
+                    }
+                    int position = Reachability.position(containedID);
+                    String current = getCurrentBranch();
+                    for (Map.Entry<String, String> branch : Refs.all().entrySet()) {
+                        if (Reachability.reach(branch.getValue()).contains(position)) {
+                            Output.out().println((branch.getKey().equals(current) ? "*" : "")
+                                    + branch.getKey());
+                        }
+                    }
+                    break;
+                }
+                createBranch(args[1]);
+                break;
 
-                    checkoutBranch(branchCommitID, args[1]);
+            case "rm-branch":
+                if (!Refs.exists(args[1])) {
+                    throw error("A branch with that name does not exist.");
+                }
+                if (getCurrentBranch().equals(args[1])) {
+                    throw error("Cannot remove the current branch.");
+                }
+                Worktree.checkNotCheckedOut(args[1]);
+                Refs.delete(args[1]);
+                break;
 
+            case "stash":
+                String action = args.length > 1 ? args[1] : "push";
+                String operand = args.length > 2 ? args[2] : null;
+                if (args.length > 3) {
+                    throw error("Incorrect operands.");
                 }
-                else {
-                    System.out.println("Incorrect operands.");
-                    System.exit(0);
+                Journal.begin();
+                switch (action) {
+                    case "push":
+                        Stash.push(operand);
+                        break;
+                    case "pop":
+                        Stash.pop(operand);
+                        break;
+                    case "list":
+                        Stash.list();
+                        break;
+                    case "drop":
+                        Stash.drop(operand);
+                        break;
+                    default:
+                        throw error("No command with that name exists.");
                 }
+                Journal.commit();
                 break;
 
-            case "branch":
-                if (join(BRANCHES_DIR, args[1]).exists()) {
-                    System.out.println("A branch with that name already exists.");
-                    System.exit(0);
+            case "cherry-pick":
+                checkOperands(args, 2);
+                Journal.begin();
+                Replay.cherryPick(args[1]);
+                Journal.commit();
+                break;
 
+            case "rebase":
+                checkOperands(args, 2);
+                Journal.begin();
+                Replay.rebase(args[1]);
+                Journal.commit();
+                break;
+
+            case "sparse-checkout":
+                if (args.length >= 2 && args[1].equals("set")) {
+                    Journal.begin();
+                    Sparse.set(Arrays.copyOfRange(args, 2, args.length));
+                    Journal.commit();
+                } else if (args.length == 2 && args[1].equals("disable")) {
+                    Journal.begin();
+                    Sparse.set(new String[0]);
+                    Journal.commit();
+                } else if (args.length == 2 && args[1].equals("list")) {
+                    Sparse.list();
+                } else {
+                    throw error("Incorrect operands.");
                 }
-                Repository.createNewBranch(args[1]);
-                writeObject(join(BRANCHES_DIR, args[1]), getHeadCommit());
                 break;
 
-            case "rm-branch":
-                File rmbranch = join(BRANCHES_DIR, args[1]);
-                if (!rmbranch.exists()) {
-                    System.out.println("A branch with that name does not exist.");
-                    System.exit(0);
+            case "worktree":
+                Journal.begin();
+                if (args.length == 4 && args[1].equals("add")) {
+                    Worktree.add(args[2], args[3]);
+                } else if (args.length == 3 && args[1].equals("remove")) {
+                    Worktree.remove(args[2]);
+                } else if (args.length == 2 && args[1].equals("list")) {
+                    Worktree.list();
+                } else {
+                    throw error("Incorrect operands.");
                 }
-                if (getCurrentBranch().equals(args[1])) {
-                    System.out.println("Cannot remove the current branch.");
-                    System.exit(0);
+                Journal.commit();
+                break;
+
+            case "bisect":
+                if (args.length < 2) {
+                    throw error("Incorrect operands.");
+                }
+                Journal.begin();
+                switch (args[1]) {
+                    case "start":
+                        Bisect.start(Arrays.copyOfRange(args, 2, args.length));
+                        break;
+                    case "good":
+                    case "bad":
+                    case "skip":
+                        if (args.length > 3) {
+                            throw error("Incorrect operands.");
+                        }
+                        Bisect.mark(args[1], args.length == 3 ? args[2] : null);
+                        break;
+                    case "run":
+                        if (args.length < 3) {
+                            throw error("Incorrect operands.");
+                        }
+                        Bisect.run(Arrays.copyOfRange(args, 2, args.length));
+                        break;
+                    case "reset":
+                        checkOperands(args, 2);
+                        Bisect.reset();
+                        break;
+                    default:
+                        throw error("No command with that name exists.");
                 }
-                rmbranch.delete();
+                Journal.commit();
                 break;
 
             case "reset":
                 if (!join(COMMIT_DIR, args[1]).exists()) {
-                    System.out.println("No commit with that id exists");
-                    System.exit(0);
+                    throw error("No commit with that id exists");
                 }
                 if (hasUntrackedFiles() && !hasUncomittedChanges()) {
-                    System.out.println("There is an untracked file in the way; delete it, or add and commit it first.");
-                    System.exit(0);
+                    throw error("There is an untracked file in the way; delete it, or add and commit it first.");
                 }
+                Journal.begin();
                 List<String> filesInCWD = plainFilenamesIn(CWD);
-                Commit c1 = readObject(join(COMMIT_DIR, args[1]), Commit.class);
+                Commit c1 = ObjectStore.readCommit(args[1]);
 
                 for (String file : filesInCWD) {
+                    if (!Sparse.includes(file)) {
+                        continue;
+                    }
                     if (c1.getFileList().containsKey(file)) {
                         checkout(file, args[1]);
                     } else {
-                        restrictedDelete(file);
+                        restrictedDelete(join(CWD, file));
                     }
                 }
                 clearStage();
                 setBranch(getCurrentBranch(), args[1]);
+                Journal.commit();
                 break;
             case "merge":
                 //failure cases
                 if (hasUncomittedChanges()) {
-                    System.out.println("You have uncommitted changes");
-                    System.exit(0);
+                    throw error("You have uncommitted changes");
                 }
 
-                else if(!join(BRANCHES_DIR, args[1]).exists()) {
-                    System.out.println("A branch with that name does not exist.");
-                    System.exit(0);
+                else if (!Refs.exists(args[1])) {
+                    throw error("A branch with that name does not exist.");
                 }
                 else if (getCurrentBranch().equals(args[1])) {
-                    System.out.println("Cannot merge a branch with itself.");
-                    System.exit(0);
+                    throw error("Cannot merge a branch with itself.");
                 }
                 else if (hasUntrackedFiles()) {
-                    System.out.println("There is an untracked file in "
+                    throw new GitletException("There is an untracked file in "
                             + "the way; delete it, or add and commit it first.");
-                    System.exit(0);
                 }
 
                 // failure cases end
-                String branchCommitID = readObject(join(BRANCHES_DIR, args[1]), String.class);
-                String commonAncestorID = findCommonAncestor(getHeadCommit(), getAllAncestors(branchCommitID));
+                Journal.begin();
+                String branchCommitID = Refs.get(args[1]);
+                String commonAncestorID = Reachability.mergeBase(getHeadCommit(), branchCommitID);
 
 
                 if (branchCommitID.equals(commonAncestorID)) {
-                    System.out.println("Given branch is an ancestor of the current branch.");
-                    System.exit(0);
+                    throw error("Given branch is an ancestor of the current branch.");
                 }
                 else if (getHeadCommit().equals(commonAncestorID)) {
                     checkoutBranch(branchCommitID, getCurrentBranch());
-                    System.out.println("Current branch fast-forwarded.");
-                    System.exit(0);
+                    Journal.commit();
+                    Output.out().println("Current branch fast-forwarded.");
+                    return;
                 }
 
-                Commit headCommit = readObject(join(COMMIT_DIR, getHeadCommit()), Commit.class);
-                Commit branchCommit = readObject(join(COMMIT_DIR, branchCommitID), Commit.class);
-                Commit commonAncestorCommit = readObject(join(COMMIT_DIR, commonAncestorID), Commit.class);
-
-                Stage stage4 = readObject(STAGE, Stage.class);
-
-                TreeSet<String> allFileNames = new TreeSet<>();
-                HashMap<String,String> headFiles = headCommit.getFileList();
-                HashMap<String,String> branchFiles = branchCommit.getFileList();
+                Commit headCommit = ObjectStore.readCommit(getHeadCommit());
+                Commit branchCommit = ObjectStore.readCommit(branchCommitID);
+                Commit commonAncestorCommit = ObjectStore.readCommit(commonAncestorID);
 
+                Stage stage4 = Stage.load();
 
-                allFileNames.addAll(headCommit.getFileList().keySet());
-                allFileNames.addAll(branchCommit.getFileList().keySet());
-                allFileNames.addAll(commonAncestorCommit.getFileList().keySet());
+                // walk the three file tables side by side: 0 is head,
+                // 1 the branch and 2 the split point
+                FileTable.Join files = new FileTable.Join(headCommit.getFileList(),
+                        branchCommit.getFileList(), commonAncestorCommit.getFileList());
 
-                for (String fileName : allFileNames) {
+                while (files.next()) {
+                    boolean inHead = files.has(0);
+                    boolean inBranch = files.has(1);
+                    boolean inAncestor = files.has(2);
+                    if (inHead && inBranch && inAncestor
+                            && files.same(0, 2) && files.same(1, 2)) {
+                        continue; // unchanged on both sides
+                    }
+                    String fileName = files.name();
+                    String headFile = files.hash(0);
+                    String branchFile = files.hash(1);
                     // case : file is present in all three
-                    if (isPresentinCommit(fileName, headCommit)
-                            && isPresentinCommit(fileName, branchCommit)
-                            && isPresentinCommit(fileName, commonAncestorCommit)) {
+                    if (inHead && inBranch && inAncestor) {
                         //case 1
-                        if (isDiffFromCommit(fileName, branchFiles.get(fileName), commonAncestorCommit) && !isDiffFromCommit(fileName, headFiles.get(fileName), commonAncestorCommit)) {
-                            stage4.addExistingFile(fileName, branchFiles.get(fileName));
+                        if (!files.same(1, 2) && files.same(0, 2)) {
+                            stage4.addExistingFile(fileName, branchFile);
                         }
 
-                        else if (isDiffFromCommit(fileName, headFiles.get(fileName), commonAncestorCommit) && !isDiffFromCommit(fileName, branchFiles.get(fileName), commonAncestorCommit)) {
-                            stage4.addExistingFile(fileName, headFiles.get(fileName));
+                        else if (!files.same(0, 2) && files.same(1, 2)) {
+                            stage4.addExistingFile(fileName, headFile);
 
                         }
 
-                        else if (isDiffFromCommit(fileName, headFiles.get(fileName), commonAncestorCommit) && isDiffFromCommit(fileName, branchFiles.get(fileName), commonAncestorCommit)) {
+                        else if (!files.same(0, 2) && !files.same(1, 2)) {
                             // case 3 part 1
-                            if (headFiles.get(fileName).equals(branchFiles.get(fileName))) {
-                                stage4.addExistingFile(fileName, headFiles.get(fileName));
+                            if (headFile.equals(branchFile)) {
+                                stage4.addExistingFile(fileName, headFile);
                             }
                             else {
-                                String mcFIle = mergeFiles(headFiles.get(fileName), branchFiles.get(fileName));
+                                String mcFIle = mergeFiles(headFile, branchFile);
                                 stage4.addExistingFile(fileName, mcFIle);
                             }
                         }
-                    } else if (isPresentinCommit(fileName, headCommit) //present only in head
-                            && !isPresentinCommit(fileName, branchCommit)
-                            && !isPresentinCommit(fileName, commonAncestorCommit)) {
+                    } else if (inHead //present only in head
+                            && !inBranch
+                            && !inAncestor) {
                         // case 4
-                        stage4.addExistingFile(fileName, headFiles.get(fileName));
+                        stage4.addExistingFile(fileName, headFile);
                         // case 6
 
-                    } else if (!isPresentinCommit(fileName, headCommit) ///present only in branch
-                            && isPresentinCommit(fileName, branchCommit)
-                            && !isPresentinCommit(fileName, commonAncestorCommit)) {
+                    } else if (!inHead ///present only in branch
+                            && inBranch
+                            && !inAncestor) {
                         //case 5
-                        stage4.addExistingFile(fileName, branchFiles.get(fileName));
-                        File f = join(CWD, fileName);
-                        try {
-                            f.createNewFile();
-                        } catch (IOException e) {
-                            System.out.println("Error");
+                        stage4.addExistingFile(fileName, branchFile);
+                        if (Sparse.includes(fileName)) {
+                            ObjectStore.copyBlob(branchFile, join(CWD, fileName));
                         }
-                        writeContents(f, readContents(join(GITLET_DIR, branchFiles.get(fileName))));
 
-                    } else if (isPresentinCommit(fileName, headCommit) ///present in head and ancestor
-                            && !isPresentinCommit(fileName, branchCommit)
-                            && isPresentinCommit(fileName, commonAncestorCommit)) {
-                        if (!isDiffFromCommit(fileName, headFiles.get(fileName), commonAncestorCommit)) {
-                            restrictedDelete(fileName);
+                    } else if (inHead ///present in head and ancestor
+                            && !inBranch
+                            && inAncestor) {
+                        if (files.same(0, 2)) {
+                            if (Sparse.includes(fileName)) {
+                                restrictedDelete(join(CWD, fileName));
+                            }
                             // no need to rm
                         }
 
                         else {
-                            String mcFIle = mergeFiles(headFiles.get(fileName), branchFiles.get(fileName));
+                            String mcFIle = mergeFiles(headFile, branchFile);
                             stage4.addExistingFile(fileName, mcFIle);
                         }
-                    } else if (!isPresentinCommit(fileName, headCommit) ///present in branch and ancestor
-                            && isPresentinCommit(fileName, branchCommit)
-                            && !isPresentinCommit(fileName, commonAncestorCommit)) {
-                        if (!isDiffFromCommit(fileName, branchFiles.get(fileName), commonAncestorCommit)) {
-                            stage4.addExistingFile(fileName, headFiles.get(fileName));
+                    } else if (!inHead ///present in branch and ancestor
+                            && inBranch
+                            && !inAncestor) {
+                        if (files.same(1, 2)) {
+                            stage4.addExistingFile(fileName, headFile);
                         }
                         else {
-                            String mcFIle = mergeFiles(headFiles.get(fileName), branchFiles.get(fileName));
+                            String mcFIle = mergeFiles(headFile, branchFile);
                             stage4.addExistingFile(fileName, mcFIle);
                         }
-                    } else if (isPresentinCommit(fileName, headCommit) ///present in branch and ancestor
-                            && isPresentinCommit(fileName, branchCommit)
-                            && !isPresentinCommit(fileName, commonAncestorCommit)) {
+                    } else if (inHead ///present in branch and ancestor
+                            && inBranch
+                            && !inAncestor) {
 
-                        String mcFIle = mergeFiles(headFiles.get(fileName), branchFiles.get(fileName));
+                        String mcFIle = mergeFiles(headFile, branchFile);
                         stage4.addExistingFile(fileName, mcFIle);
                     }
 
@@ -404,6 +646,7 @@ public class Main {
                         stage4, getHeadCommit(), branchCommitID);
                 writeCommit(mergeCommit);
                 checkoutBranch(getHeadCommit(), getCurrentBranch());
+                Journal.commit();
         }
     }
 }
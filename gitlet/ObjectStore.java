@@ -0,0 +1,307 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Reads and writes the content-addressed objects of a repository: blobs
+ *  (named by the SHA-1 of their contents, stored directly in .gitlet) and
+ *  commits (named by their id, stored in COMMIT_DIR).
+ *
+ *  Names are hashes of the uncompressed contents. Objects are stored
+ *  compressed: a stored object starts with the four bytes 0 'g' 'z' CODEC,
+ *  followed by the compressed data; CODEC 1 is zlib (java.util.zip.Deflater)
+ *  at the level set by core.compression. Objects without that header were
+ *  written before compression existed and are read uncompressed; a commit
+ *  among them keeps its files in a HashMap, which Commit converts as it is
+ *  read.
+ *
+ *  A blob of at least core.bigFileThreshold bytes is split into
+ *  content-defined chunks (see Chunker), each stored as a blob of its own,
+ *  and the blob itself is stored as a manifest: the header with CODEC 2,
+ *  then the hashes of its chunks, one per line. Chunks shared with other
+ *  versions or other files are stored once. Reading a manifest streams the
+ *  chunks one after another.
+ *
+ *  In a blob-less clone, a blob that is not here yet is copied from the
+ *  clone's source repository the first time it is opened.
+ *
+ *  @author Ting-Che Lin
+ */
+class ObjectStore {
+
+    /** Header of a compressed object, minus the codec byte. */
+    private static final byte[] MAGIC = {0, 'g', 'z'};
+
+    /** Codec byte for zlib. */
+    private static final int ZLIB = 1;
+
+    /** Codec byte for a chunk manifest. */
+    private static final int MANIFEST = 2;
+
+    /** Default chunking threshold: 8 MiB. */
+    private static final int DEFAULT_THRESHOLD = 8 * 1024 * 1024;
+
+    /** Stores CONTENTS as a blob unless an identical blob already exists,
+     *  and returns its hash. */
+    static String writeBlob(byte[] contents) {
+        String hash = sha1(contents);
+        File blob = join(GITLET_DIR, hash);
+        if (!blob.exists()) {
+            long start = Stats.start();
+            if (contents.length >= Config.getInt(Config.BIG_FILE_THRESHOLD,
+                                                        DEFAULT_THRESHOLD)) {
+                store(blob, manifest(writeChunks(contents)));
+            } else {
+                store(blob, compress(contents));
+            }
+            Stats.record(Stats.Op.WRITE_BLOB, start, contents.length);
+        }
+        return hash;
+    }
+
+    /** Stores the chunks of CONTENTS that are not stored yet and returns
+     *  the hashes of all of them, in order. Chunks are hashed, compressed
+     *  and written in parallel. */
+    private static List<String> writeChunks(byte[] contents) {
+        List<Integer> ends = Chunker.cut(contents);
+        String[] hashes = new String[ends.size()];
+        IntStream.range(0, ends.size()).parallel().forEach(i -> {
+            int from = i == 0 ? 0 : ends.get(i - 1);
+            byte[] chunk = Arrays.copyOfRange(contents, from, ends.get(i));
+            hashes[i] = sha1(chunk);
+            File stored = join(GITLET_DIR, hashes[i]);
+            if (!stored.exists()) {
+                store(stored, compress(chunk));
+            }
+        });
+        return Arrays.asList(hashes);
+    }
+
+    /** Returns the stored form of a manifest of CHUNKS. */
+    private static byte[] manifest(List<String> chunks) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bytes.writeBytes(MAGIC);
+        bytes.write(MANIFEST);
+        for (String chunk : chunks) {
+            bytes.writeBytes((chunk + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the chunks of the stored object FILE, or an empty list if it
+     *  is not a manifest. */
+    static List<String> chunks(File file) {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] header = in.readNBytes(4);
+            if (!isHeader(header) || header[3] != MANIFEST) {
+                return new ArrayList<>();
+            }
+            return readManifest(in);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the chunk hashes listed in the rest of a manifest IN. */
+    private static List<String> readManifest(InputStream in) throws IOException {
+        List<String> chunks = new ArrayList<>();
+        for (String line
+                 : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                chunks.add(line);
+            }
+        }
+        return chunks;
+    }
+
+    /** Returns the contents of the blob HASH. */
+    static byte[] readBlob(String hash) {
+        long start = Stats.start();
+        try (InputStream in = openBlob(hash)) {
+            byte[] contents = in.readAllBytes();
+            Stats.record(Stats.Op.READ_BLOB, start, contents.length);
+            return contents;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream that inflates the blob HASH as it is read. */
+    static InputStream openBlob(String hash) {
+        File blob = join(GITLET_DIR, hash);
+        if (!blob.exists()) {
+            Remote.fetchMissingBlob(hash);
+        }
+        return open(blob);
+    }
+
+    /** Writes the contents of blob HASH to FILE, streaming it through the
+     *  inflater rather than holding it in memory, and replaces FILE
+     *  atomically. */
+    static void copyBlob(String hash, File file) {
+        Path target = file.toPath().toAbsolutePath();
+        long start = Stats.start();
+        try (InputStream in = openBlob(hash)) {
+            Path tmp = Files.createTempFile(target.getParent(),
+                                            "." + file.getName(), ".tmp");
+            try {
+                long bytes = Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                Stats.record(Stats.Op.CHECKOUT_FILE, start, bytes);
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Stores COMMIT under its id. */
+    static void writeCommit(Commit commit) {
+        try {
+            long start = Stats.start();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out =
+                new ObjectOutputStream(compressing(bytes));
+            out.writeObject(commit);
+            out.close();
+            store(join(COMMIT_DIR, commit.getId()), bytes.toByteArray());
+            Stats.record(Stats.Op.WRITE_COMMIT, start, bytes.size());
+        } catch (IOException excp) {
+            throw error("Internal error serializing commit.");
+        }
+    }
+
+    /** Returns the commit with the full id ID. */
+    static Commit readCommit(String id) {
+        return readCommit(COMMIT_DIR, id);
+    }
+
+    /** Returns the commit with the full id ID from the commit directory
+     *  COMMITDIR, which may belong to another repository. */
+    static Commit readCommit(File commitDir, String id) {
+        long start = Stats.start();
+        File file = join(commitDir, id);
+        try (ObjectInputStream in = new ObjectInputStream(open(file))) {
+            Commit commit = (Commit) in.readObject();
+            Stats.record(Stats.Op.READ_COMMIT, start, file.length());
+            return commit;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes BYTES, the stored form of an object, to FILE under its final
+     *  name by an atomic rename, bypassing the Journal (see Journal). */
+    private static void store(File file, byte[] bytes) {
+        try {
+            atomicWrite(file, bytes);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Journal.syncOnCommit(file);
+    }
+
+    /** Returns CONTENTS in stored (compressed) form. */
+    static byte[] compress(byte[] contents) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            OutputStream out = compressing(bytes);
+            out.write(contents);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the object header to OUT and returns a stream that compresses
+     *  into it. */
+    private static OutputStream compressing(OutputStream out)
+        throws IOException {
+        out.write(MAGIC);
+        out.write(ZLIB);
+        int level = Config.getInt(Config.COMPRESSION, Deflater.DEFAULT_COMPRESSION);
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            level = Deflater.DEFAULT_COMPRESSION; // set before levels were checked
+        }
+        return new DeflaterOutputStream(out, new Deflater(level), true);
+    }
+
+    /** Returns a stream of the uncompressed contents of the stored object
+     *  FILE. */
+    static InputStream open(File file) {
+        try {
+            PushbackInputStream in =
+                new PushbackInputStream(new FileInputStream(file), 4);
+            byte[] header = new byte[4];
+            int n = in.readNBytes(header, 0, 4);
+            if (n == 4 && isHeader(header)) {
+                if (header[3] == MANIFEST) {
+                    List<String> chunks = readManifest(in);
+                    in.close();
+                    return joined(file.getParentFile(), chunks);
+                }
+                if (header[3] != ZLIB) {
+                    in.close();
+                    throw error("Unknown object codec in %s", file.getName());
+                }
+                return new InflaterInputStream(in);
+            }
+            in.unread(header, 0, n);
+            return in;
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true if HEADER starts like a compressed object. */
+    private static boolean isHeader(byte[] header) {
+        return header.length == 4 && header[0] == MAGIC[0]
+            && header[1] == MAGIC[1] && header[2] == MAGIC[2];
+    }
+
+    /** Returns a stream of the contents of CHUNKS, stored in DIR, one after
+     *  another; each chunk is opened only when the one before it is used
+     *  up. */
+    private static InputStream joined(File dir, List<String> chunks) {
+        Iterator<String> next = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return next.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String chunk = next.next();
+                return dir.equals(GITLET_DIR) ? openBlob(chunk)
+                    : open(join(dir, chunk));
+            }
+        });
+    }
+}
@@ -0,0 +1,91 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/** Where gitlet commands print.
+ *
+ *  Commands print to out() rather than to System.out, progress to err()
+ *  rather than to System.err, and the programs they start through run().
+ *  On the command line those are System.out and System.err; a
+ *  GitletRepository call sends both to a buffer of its own for the length
+ *  of the call, and a read snapshot holds each back until it knows the
+ *  attempt counts. Each repository opened through GitletRepository has
+ *  its own copy of this class (see GitletRepository), and calls on one
+ *  repository are serialized, so a capture never sees another call's
+ *  output and System.out is never replaced.
+ *
+ *  @author Ting-Che Lin
+ */
+final class Output {
+
+    /** The streams commands print to. */
+    private static PrintStream out = System.out;
+    private static PrintStream err = System.err;
+
+    private Output() {
+    }
+
+    /** Returns the stream commands print to. */
+    static PrintStream out() {
+        return out;
+    }
+
+    /** Returns the stream commands report progress to. */
+    static PrintStream err() {
+        return err;
+    }
+
+    /** Runs ACTION, sending what it prints, progress included, to TARGET
+     *  instead. Captures nest. */
+    static void capture(OutputStream target, Runnable action) {
+        capture(target, target, action);
+    }
+
+    /** Runs ACTION, sending what it prints to TARGET and its progress to
+     *  ERRORS instead. Captures nest. */
+    static void capture(OutputStream target, OutputStream errors,
+                        Runnable action) {
+        PrintStream previousOut = out;
+        PrintStream previousErr = err;
+        out = new PrintStream(target, true, StandardCharsets.UTF_8);
+        err = target == errors ? out
+            : new PrintStream(errors, true, StandardCharsets.UTF_8);
+        try {
+            action.run();
+        } finally {
+            out.flush();
+            err.flush();
+            out = previousOut;
+            err = previousErr;
+        }
+    }
+
+    /** Starts BUILDER with its standard output sent to out() and its
+     *  standard error to err(), waits for it to finish and returns its
+     *  exit status. */
+    static int run(ProcessBuilder builder)
+        throws IOException, InterruptedException {
+        Process process = builder.redirectInput(ProcessBuilder.Redirect.INHERIT)
+            .start();
+        PrintStream errors = err;
+        Thread pump = new Thread(() -> copy(process.getErrorStream(), errors));
+        pump.start();
+        copy(process.getInputStream(), out);
+        pump.join();
+        return process.waitFor();
+    }
+
+    /** Copies IN to OUT until IN ends or fails. */
+    private static void copy(InputStream in, PrintStream out) {
+        try (in) {
+            in.transferTo(out);
+        } catch (IOException excp) {
+            // the process went away; what it wrote has been copied
+        }
+        out.flush();
+    }
+}
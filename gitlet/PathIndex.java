@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Which commits changed which files.
+ *
+ *  For every file a commit adds, modifies or removes relative to its first
+ *  parent, the commit id is appended to .gitlet/path_index/<SHA-1 of the
+ *  file name>. log -- FILE reads that one list and only loads the commits
+ *  on it. Commits are indexed together with their CommitGraph entry, so a
+ *  commit found in the graph is known to be in the path index too.
+ *
+ *  @author Ting-Che Lin
+ */
+class PathIndex {
+
+    /** The directory of per-file lists. */
+    static final File INDEX_DIR = join(GITLET_DIR, "path_index");
+
+    /** Indexes commit C, and adds it to the commit graph. A shallow
+     *  boundary commit, whose parent is not here, is indexed as a root:
+     *  as adding all its files. The caller updates the boundary first. */
+    static void add(Commit c) {
+        if (CommitGraph.get(c.getId()) != null) {
+            return;
+        }
+        FileTable before = c.getParent() == null
+            || Shallow.isBoundary(c.getId())
+            ? FileTable.EMPTY : ObjectStore.readCommit(c.getParent()).getFileList();
+        INDEX_DIR.mkdir();
+        byte[] line = (c.getId() + "\n").getBytes(StandardCharsets.UTF_8);
+        FileTable.Join files = new FileTable.Join(before, c.getFileList());
+        while (files.next()) {
+            if (!files.same(0, 1)) {
+                appendContents(join(INDEX_DIR, sha1(files.name())), line);
+            }
+        }
+        CommitGraph.add(c);
+    }
+
+    /** Indexes COMMITS, parents first, given CHANGES, the ids of the
+     *  commits that changed each file name. Appends to each file's list
+     *  once rather than once per commit, so history whose changes are
+     *  already known (as in fast-import) is indexed without reading it. */
+    static void addAll(List<CommitGraph.Node> commits,
+                       Map<String, List<String>> changes) {
+        INDEX_DIR.mkdir();
+        for (Map.Entry<String, List<String>> file : changes.entrySet()) {
+            StringBuilder ids = new StringBuilder();
+            for (String id : file.getValue()) {
+                ids.append(id).append('\n');
+            }
+            appendContents(join(INDEX_DIR, sha1(file.getKey())),
+                           ids.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        for (CommitGraph.Node commit : commits) {
+            CommitGraph.add(commit);
+        }
+    }
+
+    /** Returns the ids of the indexed commits that changed file NAME. */
+    static Set<String> changes(String name) {
+        HashSet<String> result = new HashSet<>();
+        File list = join(INDEX_DIR, sha1(name));
+        if (list.exists()) {
+            for (String id : readContentsAsString(list).split("\n")) {
+                if (!id.isEmpty()) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns true if commit ID changed file NAME relative to its first
+     *  parent, reading the commits only if ID is not indexed. CHANGED is
+     *  the result of changes(NAME). */
+    static boolean changed(String id, String name, Set<String> changed) {
+        if (CommitGraph.get(id) != null) {
+            return changed.contains(id);
+        }
+        Commit c = ObjectStore.readCommit(id);
+        String before = c.getParent() == null || Shallow.isBoundary(id) ? null
+            : ObjectStore.readCommit(c.getParent()).getFileList().get(name);
+        return !Objects.equals(before, c.getFileList().get(name));
+    }
+}
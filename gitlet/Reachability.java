@@ -0,0 +1,191 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Which commits each commit can reach, as bitmaps of commit-graph
+ *  positions.
+ *
+ *  gc stores the full reachability bitmap of every branch head and of
+ *  every commit whose position is a multiple of SPACING in
+ *  .gitlet/bitmaps. Computing the bitmap of any other commit walks the
+ *  commit graph only until it meets a commit with a stored bitmap, which
+ *  is then ORed in whole; so right after gc, the bitmap of a branch head
+ *  costs one lookup, and containment and merge bases become a bit test and
+ *  an AND. Stored bitmaps never go stale, since a commit's ancestors never
+ *  change, except when the shallow boundary moves; that discards them.
+ *
+ *  @author Ting-Che Lin
+ */
+class Reachability {
+
+    /** The stored bitmaps. */
+    static final File BITMAPS = join(GITLET_DIR, "bitmaps");
+
+    /** First bytes of the bitmaps file. */
+    private static final int MAGIC = 0x474c424d;
+
+    /** Every commit whose position is a multiple of this gets a stored
+     *  bitmap, so no walk goes much further than this before meeting one. */
+    private static final int SPACING = 128;
+
+    /** Stored bitmaps by commit id; null until first used. */
+    private static HashMap<String, Bitmap> stored;
+
+    /** Returns the positions of the commits reachable from commit ID,
+     *  including ID itself. */
+    static Bitmap reach(String id) {
+        return reach(List.of(id));
+    }
+
+    /** Returns the positions of the commits reachable from any of TIPS. */
+    static Bitmap reach(Collection<String> tips) {
+        long start = Stats.start();
+        Bitmap result = new Bitmap();
+        ArrayDeque<String> stack = new ArrayDeque<>(tips);
+        while (!stack.isEmpty()) {
+            String id = stack.pop();
+            int position = position(id);
+            if (result.contains(position)) {
+                continue;
+            }
+            Bitmap known = stored().get(id);
+            if (known != null) {
+                result.or(known);
+                continue;
+            }
+            result.add(position);
+            for (String parent : CommitGraph.parents(id)) {
+                stack.push(parent);
+            }
+        }
+        Stats.record(Stats.Op.ANCESTORS, start, 0);
+        return result;
+    }
+
+    /** Returns true if commit ID is TIP or one of its ancestors. */
+    static boolean contains(String tip, String id) {
+        return reach(tip).contains(position(id));
+    }
+
+    /** Returns the merge base of commits A and B: of the commits both can
+     *  reach, the first one met walking back from A breadth first, or null
+     *  if they share no history. */
+    static String mergeBase(String a, String b) {
+        Bitmap common = reach(a).and(reach(b));
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        HashSet<String> seen = new HashSet<>();
+        queue.add(a);
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            if (!seen.add(id)) {
+                continue;
+            }
+            if (common.contains(position(id))) {
+                return id;
+            }
+            List<String> parents = CommitGraph.parents(id);
+            for (int i = parents.size() - 1; i >= 0; i -= 1) {
+                queue.add(parents.get(i));
+            }
+        }
+        return null;
+    }
+
+    /** Returns the commit-graph position of commit ID, indexing the commit
+     *  first if it predates the graph. */
+    static int position(String id) {
+        CommitGraph.Node node = CommitGraph.get(id);
+        if (node == null) {
+            PathIndex.add(ObjectStore.readCommit(id));
+            node = CommitGraph.get(id);
+        }
+        return node.position;
+    }
+
+    /** Recomputes and stores the bitmaps of the branch heads and of every
+     *  SPACING-th commit still in the repository. */
+    static void build() {
+        TreeSet<Integer> selected = new TreeSet<>();
+        for (String id : Refs.all().values()) {
+            selected.add(position(id));
+        }
+        for (int p = 0; p < CommitGraph.size(); p += SPACING) {
+            if (join(COMMIT_DIR, CommitGraph.at(p).id).exists()) {
+                selected.add(p);
+            }
+        }
+        stored = new HashMap<>();
+        for (int p : selected) {
+            String id = CommitGraph.at(p).id;
+            stored.put(id, reach(id));
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(stored.size());
+            for (int p : selected) {
+                String id = CommitGraph.at(p).id;
+                out.writeUTF(id);
+                stored.get(id).write(out);
+            }
+            out.close();
+            writeContents(BITMAPS, bytes.toByteArray());
+        } catch (IOException excp) {
+            throw error("Could not write bitmaps: %s", excp.getMessage());
+        }
+    }
+
+    /** Discards the stored bitmaps of the repository whose .gitlet
+     *  directory is DIR. */
+    static void clear(File dir) {
+        join(dir, BITMAPS.getName()).delete();
+        if (dir.equals(GITLET_DIR)) {
+            stored = null;
+        }
+    }
+
+    /** Forgets the loaded bitmaps so the next call rereads them. */
+    static void invalidate() {
+        stored = null;
+    }
+
+    /** Returns the stored bitmaps, reading them once. */
+    private static HashMap<String, Bitmap> stored() {
+        if (stored != null) {
+            return stored;
+        }
+        stored = new HashMap<>();
+        if (!BITMAPS.exists()) {
+            return stored;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(readContents(BITMAPS)));
+            if (in.readInt() != MAGIC) {
+                return stored;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i += 1) {
+                String id = in.readUTF();
+                stored.put(id, Bitmap.read(in));
+            }
+        } catch (IOException excp) {
+            stored.clear();
+        }
+        return stored;
+    }
+}
@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Branch references.
+ *
+ *  Branches live in two places. The packed refs file, .gitlet/packed_refs,
+ *  has one "<commit id> <branch name>" line per branch. Moving a branch
+ *  writes just its loose ref, a file in BRANCHES_DIR holding the commit id
+ *  and a newline, so an update costs the same however many branches there
+ *  are. A loose ref overrides the packed entry of the same name, and an
+ *  empty one marks a deleted branch. Loose ref file names escape "/" and
+ *  "%" so that branches such as origin/master stay one file.
+ *
+ *  Once more than MAX_LOOSE loose refs have built up, the next writer to
+ *  take the lock folds them into the packed file (as gc does), so reading
+ *  the branches, once per command, costs one file plus a few overrides.
+ *  Repositories from before packed refs, whose loose refs hold serialized
+ *  strings, still read as they are and are packed the same way.
+ *
+ *  @author Ting-Che Lin
+ */
+class Refs {
+
+    /** The packed refs file. */
+    static final File PACKED_REFS = join(GITLET_DIR, "packed_refs");
+
+    /** Loose refs allowed before a writer packs them. */
+    private static final int MAX_LOOSE = 32;
+
+    /** All branches, by name, with loose refs already applied. Null until
+     *  first used. */
+    private static TreeMap<String, String> refs;
+
+    /** Returns every branch name mapped to its commit id, sorted by name. */
+    static TreeMap<String, String> all() {
+        if (refs == null) {
+            refs = load();
+        }
+        return refs;
+    }
+
+    /** Returns the commit id BRANCH points to, or null if there is no such
+     *  branch. */
+    static String get(String branch) {
+        return all().get(branch);
+    }
+
+    /** Returns true if BRANCH exists. */
+    static boolean exists(String branch) {
+        return all().containsKey(branch);
+    }
+
+    /** Points BRANCH at COMMITID, creating it if needed. */
+    static void set(String branch, String commitId) {
+        all().put(branch, commitId);
+        writeContents(looseRef(GITLET_DIR, branch), commitId + "\n");
+    }
+
+    /** Deletes BRANCH. */
+    static void delete(String branch) {
+        all().remove(branch);
+        writeContents(looseRef(GITLET_DIR, branch), new byte[0]);
+    }
+
+    /** Points BRANCH of the repository whose .gitlet directory is DIR at
+     *  COMMITID. */
+    static void set(File dir, String branch, String commitId) {
+        writeContents(looseRef(dir, branch), commitId + "\n");
+    }
+
+    /** Packs the refs if more than MAX_LOOSE loose refs have built up.
+     *  Called by a writer as it takes the lock. */
+    static void tidy() {
+        String[] loose = BRANCHES_DIR.list();
+        if (loose != null && loose.length > MAX_LOOSE) {
+            pack();
+        }
+    }
+
+    /** Folds the loose refs into the packed refs file and removes them.
+     *  Used by gc and tidy, outside any transaction: the packed file is
+     *  made durable before the first loose ref goes. */
+    static void pack() {
+        if (Journal.isOpen()) {
+            throw error("Refs cannot be packed inside a transaction.");
+        }
+        save(GITLET_DIR, all());
+        Journal.fsync(PACKED_REFS);
+        List<String> loose = plainFilenamesIn(BRANCHES_DIR);
+        if (loose != null) {
+            for (String name : loose) {
+                join(BRANCHES_DIR, name).delete();
+            }
+        }
+    }
+
+    /** Forgets the parsed refs so the next call rereads them from disk. */
+    static void invalidate() {
+        refs = null;
+    }
+
+    /** Reads the packed refs file and overlays the loose refs. */
+    private static TreeMap<String, String> load() {
+        return load(GITLET_DIR);
+    }
+
+    /** Returns the branches of the repository whose .gitlet directory is
+     *  DIR, with loose refs applied. */
+    static TreeMap<String, String> load(File dir) {
+        TreeMap<String, String> result = new TreeMap<>();
+        File packed = join(dir, PACKED_REFS.getName());
+        if (packed.exists()) {
+            for (String line : readContentsAsString(packed).split("\n")) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    result.put(line.substring(space + 1),
+                               line.substring(0, space));
+                }
+            }
+        }
+        File looseDir = join(dir, BRANCHES_DIR.getName());
+        List<String> loose = plainFilenamesIn(looseDir);
+        if (loose != null) {
+            for (String name : loose) {
+                String commitId = readLoose(join(looseDir, name));
+                if (commitId != null) {
+                    result.put(unescape(name), commitId);
+                } else {
+                    result.remove(unescape(name));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the commit id in the loose ref REF, or null if REF marks a
+     *  deleted branch. */
+    private static String readLoose(File ref) {
+        byte[] contents = readContents(ref);
+        if (contents.length == 0) {
+            return null;
+        }
+        if (contents.length > 1 && (contents[0] & 0xff) == 0xac && (contents[1] & 0xff) == 0xed) {
+            return readObject(ref, String.class); // serialized, as before packed refs
+        }
+        return new String(contents, StandardCharsets.UTF_8).trim();
+    }
+
+    /** Replaces the packed refs of the repository whose .gitlet directory is
+     *  DIR with BRANCHES. */
+    static void save(File dir, Map<String, String> branches) {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, String> entry : branches.entrySet()) {
+            out.append(entry.getValue()).append(' ')
+                .append(entry.getKey()).append('\n');
+        }
+        writeContents(join(dir, PACKED_REFS.getName()), out.toString());
+    }
+
+    /** Returns the loose ref file of BRANCH in the repository whose .gitlet
+     *  directory is DIR. */
+    private static File looseRef(File dir, String branch) {
+        String name = branch.replace("%", "%25").replace("/", "%2F");
+        return join(dir, BRANCHES_DIR.getName(), name);
+    }
+
+    /** Returns the branch whose loose ref file is named NAME. */
+    private static String unescape(String name) {
+        return name.replace("%2F", "/").replace("%25", "%");
+    }
+}
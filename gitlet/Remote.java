@@ -0,0 +1,352 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Remotes: other repositories on the local file system, named by the path
+ *  of their .gitlet directory.
+ *
+ *  Objects move between repositories as a single pack stream. The sending
+ *  side negotiates what to send by walking back from the commit being
+ *  transferred and stopping at the first commit the receiving side already
+ *  has (a repository that has a commit has all of its ancestors), then
+ *  adds every blob of those commits the receiver lacks. The pack is written
+ *  on one thread and unpacked on another as it arrives, blobs first and
+ *  commits oldest first, so a transfer cut short never leaves a commit
+ *  without its parents or files. Branches are moved only after the pack is
+ *  complete.
+ *
+ *  @author Ting-Che Lin
+ */
+class Remote {
+
+    /** Config key prefix for remote paths. */
+    private static final String KEY = "remote.";
+
+    /** The name clone gives its source. */
+    private static final String ORIGIN = "origin";
+
+    /** Config key naming the remote that supplies missing blobs. */
+    static final String PROMISOR = "core.promisor";
+
+    /** First bytes of a pack. */
+    private static final int PACK_MAGIC = 0x474c504b;
+
+    /** Pack record types. */
+    private static final int END = 0;
+    private static final int BLOB = 1;
+    private static final int COMMIT = 2;
+
+    /** Runs add-remote NAME PATH. */
+    static void addRemote(String name, String path) {
+        if (Config.get(KEY + name, null) != null) {
+            throw error("A remote with that name already exists.");
+        }
+        Config.set(KEY + name, path.replace("/", File.separator));
+    }
+
+    /** Runs rm-remote NAME. */
+    static void rmRemote(String name) {
+        if (Config.get(KEY + name, null) == null) {
+            throw error("A remote with that name does not exist.");
+        }
+        Config.remove(KEY + name);
+    }
+
+    /** Returns the .gitlet directory of remote NAME, failing if it is not
+     *  there. */
+    static File remoteDir(String name) {
+        String path = Config.get(KEY + name, null);
+        File dir = path == null ? null : new File(path);
+        if (dir != null && !dir.isAbsolute()) {
+            dir = join(CWD, path);
+        }
+        if (dir == null || !dir.isDirectory()) {
+            throw error("Remote directory not found.");
+        }
+        return dir;
+    }
+
+    /** Runs push REMOTE BRANCH: sends the current branch's history and
+     *  points BRANCH of REMOTE at the current head. */
+    static void push(String remote, String branch) {
+        File dir = remoteDir(remote);
+        String head = getHeadCommit();
+        boolean[] behind = new boolean[1];
+        RepoLock.withLock(dir, () -> {
+            TreeMap<String, String> refs = Refs.load(dir);
+            String remoteHead = refs.get(branch);
+            if (remoteHead != null && (!join(COMMIT_DIR, remoteHead).exists()
+                    || !Reachability.contains(head, remoteHead))) {
+                behind[0] = true;
+                return;
+            }
+            transfer(GITLET_DIR, dir, head);
+            Refs.set(dir, branch, head);
+        });
+        if (behind[0]) {
+            throw error("Please pull down remote changes before pushing.");
+        }
+    }
+
+    /** Runs fetch REMOTE BRANCH: copies the history of BRANCH of REMOTE and
+     *  points the local branch REMOTE/BRANCH at it. */
+    static void fetch(String remote, String branch) {
+        File dir = remoteDir(remote);
+        String remoteHead = Refs.load(dir).get(branch);
+        if (remoteHead == null) {
+            throw error("That remote does not have that branch.");
+        }
+        transfer(dir, GITLET_DIR, remoteHead);
+        setBranch(remote + "/" + branch, remoteHead);
+    }
+
+    /** Runs clone PATH [--depth N] [--filter=blob:none] in an empty
+     *  directory: copies every branch of the repository whose .gitlet
+     *  directory is PATH, keeping only DEPTH generations of history if DEPTH
+     *  is not 0 and no blobs if WITHBLOBS is false, then checks out the
+     *  source's current branch. The source becomes remote origin; in a
+     *  blob-less clone it also supplies blobs on demand. */
+    static void cloneRepo(String path, int depth, boolean withBlobs) {
+        File source = new File(path);
+        if (!source.isAbsolute()) {
+            source = join(CWD, path);
+        }
+        if (!source.isDirectory()) {
+            throw error("Remote directory not found.");
+        }
+        setupPersistence();
+        Config.set(KEY + ORIGIN, source.getAbsolutePath());
+        if (!withBlobs) {
+            Config.set(PROMISOR, ORIGIN);
+        }
+        for (Map.Entry<String, String> branch : Refs.load(source).entrySet()) {
+            transfer(source, GITLET_DIR, branch.getValue(), depth, withBlobs);
+            setBranch(branch.getKey(), branch.getValue());
+        }
+        String current = readObject(join(source, CURRENT_BRANCH.getName()),
+                                    String.class);
+        checkoutBranch(Refs.get(current), current);
+    }
+
+    /** Copies blob HASH from the remote that supplies blobs to this
+     *  blob-less clone, if this is one and the remote has it. */
+    static void fetchMissingBlob(String hash) {
+        String promisor = Config.get(PROMISOR, null);
+        if (promisor == null) {
+            return;
+        }
+        File stored = join(remoteDir(promisor), hash);
+        if (stored.exists()) {
+            try {
+                atomicWrite(join(GITLET_DIR, hash), readContents(stored));
+            } catch (IOException excp) {
+                throw error("Could not fetch blob %s", hash);
+            }
+        }
+    }
+
+    /** Copies commit TIP and everything it needs from the repository whose
+     *  .gitlet directory is FROM to the one at TO. */
+    static void transfer(File from, File to, String tip) {
+        transfer(from, to, tip, 0, true);
+    }
+
+    /** Copies commit TIP from the repository whose .gitlet directory is FROM
+     *  to the one at TO, along with at most DEPTH - 1 generations of its
+     *  ancestors (all of them if DEPTH is 0) and, if WITHBLOBS, their
+     *  blobs. Commits whose parents were left behind become TO's shallow
+     *  boundary. */
+    static void transfer(File from, File to, String tip, int depth,
+                         boolean withBlobs) {
+        List<String> commits = missingCommits(from, to, tip, depth);
+        List<String> blobs = withBlobs ? missingBlobs(from, to, commits)
+            : new ArrayList<>();
+        try {
+            PipedInputStream in = new PipedInputStream(1 << 16);
+            PipedOutputStream out = new PipedOutputStream(in);
+            CompletableFuture<Void> sender = CompletableFuture.runAsync(() -> {
+                try (OutputStream pack = out) {
+                    writePack(from, blobs, commits, pack);
+                } catch (IOException excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            });
+            readPack(in, to);
+            sender.join();
+        } catch (IOException excp) {
+            throw error("Transfer failed: %s", excp.getMessage());
+        }
+        Shallow.update(to, commits);
+        if (to.equals(GITLET_DIR)) {
+            for (String id : commits) {
+                PathIndex.add(ObjectStore.readCommit(id));
+            }
+        }
+    }
+
+    /** Returns the commits in FROM that TO does not have and that are at
+     *  most DEPTH - 1 parent links from TIP (any number if DEPTH is 0),
+     *  parents before children. */
+    static List<String> missingCommits(File from, File to, String tip,
+                                       int depth) {
+        File fromCommits = join(from, COMMIT_DIR.getName());
+        File toCommits = join(to, COMMIT_DIR.getName());
+        Set<String> fromBoundary = Shallow.load(from);
+        LinkedHashMap<String, Commit> missing = new LinkedHashMap<>();
+        HashMap<String, Integer> distance = new HashMap<>();
+        ArrayDeque<String> queue = new ArrayDeque<>();
+        queue.add(tip);
+        distance.put(tip, 1);
+        while (!queue.isEmpty()) {
+            String id = queue.poll();
+            if (missing.containsKey(id) || join(toCommits, id).exists()) {
+                continue;
+            }
+            Commit c = ObjectStore.readCommit(fromCommits, id);
+            missing.put(id, c);
+            int next = distance.get(id) + 1;
+            if (fromBoundary.contains(id) || (depth > 0 && next > depth)) {
+                continue;
+            }
+            for (String parent : new String[] {c.getParent(), c.getMergeprt2()}) {
+                if (parent != null && !distance.containsKey(parent)) {
+                    distance.put(parent, next);
+                    queue.add(parent);
+                }
+            }
+        }
+        return parentsFirst(missing);
+    }
+
+    /** Returns the ids of COMMITS ordered so that each comes after those of
+     *  its parents that are also in COMMITS. */
+    private static List<String> parentsFirst(Map<String, Commit> commits) {
+        List<String> order = new ArrayList<>();
+        HashSet<String> placed = new HashSet<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        for (String start : commits.keySet()) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                if (placed.contains(id)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit c = commits.get(id);
+                boolean ready = true;
+                for (String parent : new String[] {c.getParent(), c.getMergeprt2()}) {
+                    if (parent != null && commits.containsKey(parent)
+                        && !placed.contains(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    placed.add(id);
+                    order.add(id);
+                }
+            }
+        }
+        return order;
+    }
+
+    /** Returns the blobs of COMMITS in FROM that TO does not have. */
+    private static List<String> missingBlobs(File from, File to,
+                                             List<String> commits) {
+        File fromCommits = join(from, COMMIT_DIR.getName());
+        List<String> missing = new ArrayList<>();
+        HashSet<String> seen = new HashSet<>();
+        for (String id : commits) {
+            for (String blob
+                     : ObjectStore.readCommit(fromCommits, id).getFileList().values()) {
+                if (!seen.add(blob) || join(to, blob).exists()
+                    || !join(from, blob).exists()) {
+                    continue;
+                }
+                // chunks go first, so a manifest never arrives without them
+                for (String chunk : ObjectStore.chunks(join(from, blob))) {
+                    if (seen.add(chunk) && !join(to, chunk).exists()) {
+                        missing.add(chunk);
+                    }
+                }
+                missing.add(blob);
+            }
+        }
+        return missing;
+    }
+
+    /** Writes a pack of BLOBS and COMMITS, as stored in FROM, to OUT. */
+    static void writePack(File from, List<String> blobs, List<String> commits,
+                          OutputStream out) throws IOException {
+        DataOutputStream pack =
+            new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        pack.writeInt(PACK_MAGIC);
+        for (String blob : blobs) {
+            writeRecord(pack, BLOB, blob, join(from, blob));
+        }
+        File commitDir = join(from, COMMIT_DIR.getName());
+        for (String id : commits) {
+            writeRecord(pack, COMMIT, id, join(commitDir, id));
+        }
+        pack.writeByte(END);
+        pack.flush();
+    }
+
+    /** Appends the stored object FILE, named NAME, to PACK. */
+    private static void writeRecord(DataOutputStream pack, int type,
+                                    String name, File file) throws IOException {
+        pack.writeByte(type);
+        pack.writeUTF(name);
+        pack.writeLong(file.length());
+        Files.copy(file.toPath(), pack);
+    }
+
+    /** Stores every object of the pack read from IN in the repository whose
+     *  .gitlet directory is TO. Returns the number of objects. */
+    static int readPack(InputStream in, File to) throws IOException {
+        DataInputStream pack =
+            new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        if (pack.readInt() != PACK_MAGIC) {
+            throw error("Not a gitlet pack.");
+        }
+        int count = 0;
+        while (true) {
+            int type = pack.readByte();
+            if (type == END) {
+                return count;
+            }
+            String name = pack.readUTF();
+            byte[] stored = new byte[(int) pack.readLong()];
+            pack.readFully(stored);
+            File target = type == COMMIT
+                ? join(to, COMMIT_DIR.getName(), name) : join(to, name);
+            if (!target.exists()) {
+                atomicWrite(target, stored);
+            }
+            count += 1;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** The cherry-pick and rebase commands.
+ *
+ *  Both replay commits as changes to file tables rather than as checkouts.
+ *  The change a commit made is the difference between its file list and
+ *  its first parent's; replaying it onto another file table (name to blob
+ *  hash, held in memory) sets each changed file to its new version where
+ *  the table still has the old one. Each replayed commit is written as
+ *  soon as its table is known, but the working directory is only brought
+ *  up to date once, at the end, and then only for the files whose version
+ *  changed and that a sparse checkout selects.
+ *
+ *  Where the table has something else, the file is a conflict. As with
+ *  merge, the replay does not stop for it: the file gets the usual
+ *  conflict markers, the replayed commit is written with them, and each
+ *  conflict is reported by name at the end, for the user to fix and
+ *  commit.
+ *
+ *  @author Ting-Che Lin
+ */
+class Replay {
+
+    /** Runs cherry-pick COMMIT: replays COMMIT onto the current branch. */
+    static void cherryPick(String commit) {
+        String id = resolveCommitId(commit);
+        if (id == null) {
+            throw error("No commit with that id exists.");
+        }
+        if (hasUncomittedChanges()) {
+            throw error("You have uncommitted changes.");
+        }
+        String head = getHeadCommit();
+        if (Reachability.contains(head, id)) {
+            throw error("That commit is already on the current branch.");
+        }
+        List<String> conflicts = new ArrayList<>();
+        String tip = replay(head, List.of(id), conflicts);
+        if (tip.equals(head)) {
+            throw error("No changes to cherry-pick.");
+        }
+        finish(head, tip);
+        conflicts.forEach(Output.out()::println);
+    }
+
+    /** Runs rebase BRANCH: replays the commits of the current branch that
+     *  BRANCH does not have onto BRANCH, each after its parents, and moves
+     *  the current branch to the result. Merge commits are left out. */
+    static void rebase(String branch) {
+        if (!Refs.exists(branch)) {
+            throw error("A branch with that name does not exist.");
+        }
+        if (branch.equals(getCurrentBranch())) {
+            throw error("Cannot rebase a branch onto itself.");
+        }
+        if (hasUncomittedChanges()) {
+            throw error("You have uncommitted changes.");
+        }
+        String head = getHeadCommit();
+        String upstream = Refs.get(branch);
+        if (Reachability.contains(head, upstream)) {
+            Output.out().println("Current branch is up to date.");
+            return;
+        }
+        Bitmap upstreamHistory = Reachability.reach(upstream);
+        if (upstreamHistory.contains(Reachability.position(head))) {
+            finish(head, upstream);
+            Output.out().println("Current branch fast-forwarded.");
+            return;
+        }
+        List<String> commits = new ArrayList<>();
+        for (String id : parentsFirst(head, upstreamHistory)) {
+            if (CommitGraph.lookup(id).mergeParent == null) {
+                commits.add(id);
+            }
+        }
+        if (commits.isEmpty()) {
+            Output.out().println("Current branch is up to date.");
+            return;
+        }
+        List<String> conflicts = new ArrayList<>();
+        finish(head, replay(upstream, commits, conflicts));
+        conflicts.forEach(Output.out()::println);
+    }
+
+    /** Returns HEAD and its ancestors outside EXCLUDED (a set of commit
+     *  positions), each after its parents, found by a depth-first walk
+     *  from HEAD. */
+    private static List<String> parentsFirst(String head, Bitmap excluded) {
+        List<String> order = new ArrayList<>();
+        HashSet<String> placed = new HashSet<>();
+        ArrayDeque<String> stack = new ArrayDeque<>();
+        stack.push(head);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (placed.contains(id)) {
+                stack.pop();
+                continue;
+            }
+            boolean ready = true;
+            for (String parent : CommitGraph.parents(id)) {
+                if (!placed.contains(parent)
+                    && !excluded.contains(Reachability.position(parent))) {
+                    stack.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                placed.add(id);
+                order.add(stack.pop());
+            }
+        }
+        return order;
+    }
+
+    /** Replays COMMITS, in order, on top of commit BASE and returns the last
+     *  commit written (BASE if every change was already there). Adds a
+     *  report of each conflict to CONFLICTS. */
+    private static String replay(String base, List<String> commits,
+                                 List<String> conflicts) {
+        String parent = base;
+        TreeMap<String, String> tree =
+            new TreeMap<>(ObjectStore.readCommit(base).getFileList());
+        for (String id : commits) {
+            Commit c = ObjectStore.readCommit(id);
+            Map<String, String> before = c.getParent() == null
+                ? new HashMap<>() : ObjectStore.readCommit(c.getParent()).getFileList();
+            Stage stage = new Stage();
+            TreeSet<String> names = new TreeSet<>(before.keySet());
+            names.addAll(c.getFileList().keySet());
+            for (String name : names) {
+                String from = before.get(name);
+                String to = c.getFileList().get(name);
+                String current = tree.get(name);
+                if (Objects.equals(from, to) || Objects.equals(current, to)) {
+                    continue;
+                }
+                if (!Objects.equals(current, from)) {
+                    to = conflictFile(current, to);
+                    conflicts.add("Conflict in " + name + " while applying "
+                                  + id.substring(0, 7) + ".");
+                }
+                if (to == null) {
+                    tree.remove(name);
+                    stage.getRemovals().put(name, current);
+                } else {
+                    tree.put(name, to);
+                    stage.addExistingFile(name, to);
+                }
+            }
+            if (stage.getFiles().isEmpty() && stage.getRemovals().isEmpty()) {
+                continue;
+            }
+            Commit replayed = new Commit(c.getMessage(), parent, stage);
+            ObjectStore.writeCommit(replayed);
+            PathIndex.add(replayed);
+            parent = replayed.getId();
+        }
+        return parent;
+    }
+
+    /** Moves the current branch from commit FROM to commit TO and updates
+     *  the working directory, touching only the files that differ between
+     *  the two. Fails without changing anything if an untracked file would
+     *  be overwritten. */
+    private static void finish(String from, String to) {
+        updateWorkingFiles(from, to);
+        setBranch(getCurrentBranch(), to);
+    }
+}
@@ -0,0 +1,222 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Coordinates gitlet processes that share one repository.
+ *
+ *  Commands that modify the repository take an exclusive lock on
+ *  .gitlet/lock (FileChannel.lock), so at most one writer runs at a time.
+ *  Read-only commands never lock. Instead, the writer keeps a generation
+ *  number in .gitlet/generation that is odd while it holds the lock and even
+ *  otherwise, like a seqlock. A reader records the generation, runs with its
+ *  output buffered, and prints only if the generation is still the same
+ *  even number afterwards; otherwise it retries. Since every file is
+ *  replaced by an atomic rename, readers never see a half-written file, and
+ *  any number of readers run side by side.
+ *
+ *  @author Ting-Che Lin
+ */
+class RepoLock {
+
+    /** The file writers lock. */
+    static final File LOCK = join(GITLET_DIR, "lock");
+
+    /** The file holding the current generation number. */
+    static final File GENERATION = join(GITLET_DIR, "generation");
+
+    /** How long a reader waits between checks while a writer is active. */
+    private static final long RETRY_MILLIS = 2;
+
+    /** The open lock file and the lock held on it, or null. */
+    private static FileChannel channel;
+    private static FileLock lock;
+
+    /** Releases the lock if the JVM exits while holding it. */
+    private static final Thread RELEASE_ON_EXIT = new Thread(RepoLock::release);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(RELEASE_ON_EXIT);
+    }
+
+    /** Blocks until this process is the only writer of the repository,
+     *  then finishes any transaction an earlier writer left behind and packs
+     *  the refs if they need it. The lock is released by release() or when
+     *  the JVM exits. */
+    static void acquire() {
+        try {
+            channel = FileChannel.open(LOCK.toPath(), StandardOpenOption.CREATE,
+                                       StandardOpenOption.WRITE);
+            lock = channel.lock();
+        } catch (IOException excp) {
+            throw error("Could not lock repository: %s", excp.getMessage());
+        }
+        invalidateCaches();
+        Journal.recover();
+        long gen = generation();
+        if (gen % 2 == 0) {
+            setGeneration(gen + 1);
+        }
+        Refs.tidy();
+    }
+
+    /** Publishes this writer's changes to readers and drops the lock. */
+    static synchronized void release() {
+        if (lock == null) {
+            return;
+        }
+        try {
+            setGeneration(generation() + 1);
+            lock.release();
+            channel.close();
+        } catch (IOException excp) {
+            throw error("Could not unlock repository: %s", excp.getMessage());
+        } finally {
+            lock = null;
+            channel = null;
+        }
+    }
+
+    /** Releases the lock if it is held and drops the shutdown hook, so that
+     *  nothing keeps this copy of the class (see GitletRepository) alive. */
+    static void close() {
+        release();
+        try {
+            Runtime.getRuntime().removeShutdownHook(RELEASE_ON_EXIT);
+        } catch (IllegalStateException excp) {
+            // the JVM is already shutting down
+        }
+    }
+
+    /** Runs the read-only COMMAND against a consistent snapshot of the
+     *  repository, retrying it if a writer changed the repository in the
+     *  meantime. Output and progress are printed only for the successful
+     *  attempt; if COMMAND fails, the attempt's output is printed as it
+     *  stands before the failure is passed on. */
+    static void readSnapshot(Runnable command) {
+        while (true) {
+            long before = generation();
+            if (before % 2 == 1) {
+                if (!recoverAbandonedWrite()) {
+                    pause();
+                }
+                continue;
+            }
+            invalidateCaches();
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            ByteArrayOutputStream progress = new ByteArrayOutputStream();
+            RuntimeException failure = null;
+            try {
+                Output.capture(buffer, progress, command);
+            } catch (RuntimeException excp) {
+                failure = excp;
+            }
+            if (generation() != before) {
+                continue;
+            }
+            Output.err().print(progress.toString(StandardCharsets.UTF_8));
+            Output.err().flush();
+            Output.out().print(buffer.toString(StandardCharsets.UTF_8));
+            Output.out().flush();
+            if (failure != null) {
+                throw failure;
+            }
+            return;
+        }
+    }
+
+    /** Forgets everything read from the repository and cached in memory,
+     *  since another process (or, through GitletRepository, another
+     *  command in this one) may have changed it since. */
+    static void invalidateCaches() {
+        Refs.invalidate();
+        CommitGraph.invalidate();
+        Config.invalidate();
+        Shallow.invalidate();
+        Reachability.invalidate();
+        Sparse.invalidate();
+    }
+
+    /** Runs ACTION while holding the writer lock of another repository,
+     *  whose .gitlet directory is DIR, and publishes its changes to that
+     *  repository's readers afterwards. */
+    static void withLock(File dir, Runnable action) {
+        File generation = join(dir, GENERATION.getName());
+        try (FileChannel ch = FileChannel.open(join(dir, LOCK.getName()).toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ch.lock(); // released when ch is closed
+            long gen = generation(generation);
+            writeContents(generation, Long.toString(gen | 1));
+            try {
+                action.run();
+            } finally {
+                writeContents(generation, Long.toString((gen | 1) + 1));
+            }
+        } catch (IOException excp) {
+            throw error("Could not lock repository: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the current generation number. */
+    static long generation() {
+        return generation(GENERATION);
+    }
+
+    /** Returns the generation number stored in FILE. */
+    private static long generation(File file) {
+        if (!file.exists()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(readContentsAsString(file).trim());
+        } catch (NumberFormatException excp) {
+            return 0;
+        }
+    }
+
+    /** Sets the generation number to GEN. */
+    private static void setGeneration(long gen) {
+        writeContents(GENERATION, Long.toString(gen));
+    }
+
+    /** Called by a reader that found an odd generation. If no writer holds
+     *  the lock, the last one died mid-command: take the lock, repair the
+     *  repository and return true. Returns false if a writer is alive. */
+    private static boolean recoverAbandonedWrite() {
+        try (FileChannel ch = FileChannel.open(LOCK.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock probe = ch.tryLock();
+            if (probe == null) {
+                return false;
+            }
+            try {
+                Journal.recover();
+                long gen = generation();
+                if (gen % 2 == 1) {
+                    setGeneration(gen + 1);
+                }
+            } finally {
+                probe.release();
+            }
+            return true;
+        } catch (IOException excp) {
+            throw error("Could not lock repository: %s", excp.getMessage());
+        }
+    }
+
+    /** Waits briefly for an active writer. */
+    private static void pause() {
+        try {
+            Thread.sleep(RETRY_MILLIS);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -2,6 +2,8 @@ package gitlet;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.*;
 import java.util.LinkedList;
 import static gitlet.Utils.*;
@@ -12,69 +14,86 @@ import static gitlet.Utils.*;
  *  @author Ting-Che Lin
  */
 public class Repository implements Serializable {
-    /** The current working directory. */
-    public static final File CWD = new File(System.getProperty("user.dir"));
+    /** The current working directory: the directory the JVM started in,
+     *  or the one a GitletRepository was opened on. */
+    public static final File CWD = GitletRepository.workingDirectory();
+
+    /** The .gitlet entry of CWD: the repository directory itself, or in a
+     *  linked worktree (see Worktree) a file naming that worktree's
+     *  directory inside the repository. */
+    private static final File DOT_GITLET = join(CWD, ".gitlet");
+
+    /** The directory holding this working tree's HEAD and stage: the .gitlet
+     *  directory itself for the main working tree. */
+    public static final File WORKTREE_DIR = DOT_GITLET.isFile()
+            ? new File(readLink(DOT_GITLET)) : DOT_GITLET;
 
     /** The .gitlet directory. */
-    public static final File GITLET_DIR = join(CWD, ".gitlet");
+    public static final File GITLET_DIR = DOT_GITLET.isFile()
+            ? WORKTREE_DIR.getParentFile().getParentFile() : DOT_GITLET;
 
-    // The directory containing all branch files
+    // The directory containing loose branch refs (see Refs)
     public static final File BRANCHES_DIR = join(GITLET_DIR, "branches_dir");
 
     // The file indicating the Head branch
-    public static final File CURRENT_BRANCH = join(GITLET_DIR, "current_branch");
+    public static final File CURRENT_BRANCH = join(WORKTREE_DIR, "current_branch");
 
     // The file containing the stage object
-    public static final File STAGE = Utils.join(GITLET_DIR, "staging_area");
+    public static final File STAGE = Utils.join(WORKTREE_DIR, "staging_area");
+
+    // The log of stage changes made since the stage was last saved
+    public static final File STAGE_LOG = Utils.join(WORKTREE_DIR, "staging_log");
 
     // The directory containing all commits
     public static final File COMMIT_DIR = Utils.join(GITLET_DIR, "commit_dir");
 
+    private static String readLink(File link) {
+        //reads a linked worktree's .gitlet file without going through Utils,
+        //whose readers depend on GITLET_DIR
+        try {
+            return Files.readString(link.toPath(), StandardCharsets.UTF_8).trim();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     public static void setupPersistence() {
         GITLET_DIR.mkdir();
         COMMIT_DIR.mkdir();
         BRANCHES_DIR.mkdir();
+        PathIndex.INDEX_DIR.mkdir();
         try {
             STAGE.createNewFile();
             CURRENT_BRANCH.createNewFile();
 
         } catch (IOException excp) {
-            System.out.println("Error in creating file.");
+            Output.out().println("Error in creating file.");
         }
-        createNewBranch("master");
         setCurrentBranch("master");
         Stage stage = new Stage();
-        writeObject(STAGE, stage);
+        Stage.save(stage);
     }
 
     public static void clearStage() {
-        Stage stage = readObject(STAGE, Stage.class);
+        Stage stage = Stage.load();
         stage.clearStage();
-        writeObject(STAGE, stage);
+        Stage.save(stage);
     }
 
     public static void writeCommit(Commit commit) { //write a commit
-        File comm = join(COMMIT_DIR, commit.getId());
-        try {
-            comm.createNewFile();
-        } catch (IOException excp) {
-            System.out.println("Error");
-        }
-        writeObject(comm, commit);
+        ObjectStore.writeCommit(commit);
+        PathIndex.add(commit);
         setBranch(getCurrentBranch(), commit.getId());
 
     }
 
     public static void setBranch(String branchName, String commitId) {
         //update branch to a certain commit
-        String saveData = commitId;
-        writeObject(join(BRANCHES_DIR, branchName), saveData);
+        Refs.set(branchName, commitId);
     }
 
     public static String getHeadCommit() {
-        return readObject(
-                join(BRANCHES_DIR, readObject(CURRENT_BRANCH, String.class)), String.class);
-
+        return Refs.get(getCurrentBranch());
     }
 
     public static void setCurrentBranch(String branchName) {
@@ -85,108 +104,109 @@ public class Repository implements Serializable {
         return readObject(CURRENT_BRANCH, String.class);
     }
 
-    public static void createNewBranch(String name) {
-        File newBranch = join(BRANCHES_DIR, name);
-        try {
-            newBranch.createNewFile();
-        } catch (IOException e) {
-            System.out.println("Error");
+    public static String resolveCommitId(String prefix) {
+        //returns the full id of the commit starting with prefix, or null
+        if (prefix.length() >= UID_LENGTH) {
+            return join(COMMIT_DIR, prefix).exists() ? prefix : null;
         }
-
+        for (String fileName : plainFilenamesIn(COMMIT_DIR)) {
+            if (fileName.startsWith(prefix)) {
+                return fileName;
+            }
+        }
+        return null;
     }
+
     public static void checkout(String fileName, String commitID) {
-        Commit headCommit = readObject(join(COMMIT_DIR, commitID), Commit.class);
+        Commit headCommit = ObjectStore.readCommit(commitID);
         if (headCommit.getFileList().containsKey(fileName)) {
-            byte[] contents
-                    = readContents(join(GITLET_DIR, headCommit.getFileList().get(fileName)));
-            if (!join(CWD, fileName).exists()) {
-                File newFile = join(CWD, fileName);
-                try {
-                    newFile.createNewFile();
-                } catch (java.io.IOException excp) {
-                    System.out.println("Error");
-                }
-            }
-            writeContents(join(CWD, fileName), contents);
+            ObjectStore.copyBlob(headCommit.getFileList().get(fileName), join(CWD, fileName));
         }
     }
 
     public static void checkoutBranch(String commitID, String branchName) {
 
-        Commit branchCommit = readObject(join(COMMIT_DIR, commitID), Commit.class);
+        Commit branchCommit = ObjectStore.readCommit(commitID);
 
         List<String> fileList = plainFilenamesIn(CWD);
 
         for (String fileName : fileList) {
+            if (!Sparse.includes(fileName)) {
+                continue;
+            }
             if (branchCommit.getFileList().containsKey(fileName)) {
                 String fileHashInGitDir = branchCommit.getFileList().get(fileName);
-                byte[] contents = readContents(join(GITLET_DIR, fileHashInGitDir));
-
-                writeContents(join(CWD, fileName), contents);
+                ObjectStore.copyBlob(fileHashInGitDir, join(CWD, fileName));
             } else {
-                restrictedDelete(fileName);
+                restrictedDelete(join(CWD, fileName));
             }
         }
         for (Map.Entry<String, String> entry : branchCommit.getFileList().entrySet()) {
-            if (!join(CWD, entry.getKey()).exists()) {
-                File newFile = join(CWD, entry.getKey());
-                try {
-                    newFile.createNewFile();
-                } catch (IOException excp) {
-                    System.out.println("Error");
-                }
-                writeContents(newFile, readContents(join(GITLET_DIR, entry.getValue())));
-
+            if (Sparse.includes(entry.getKey()) && !join(CWD, entry.getKey()).exists()) {
+                ObjectStore.copyBlob(entry.getValue(), join(CWD, entry.getKey()));
             }
         }
         writeObject(CURRENT_BRANCH, branchName);
     }
 
-    public static TreeSet<String> getAllAncestors(String commitID) {
-        TreeSet<String> ancestors = new TreeSet<>();
-        LinkedList<String> queue = new LinkedList<>();
-        queue.addLast(commitID);
-
-        while (queue.size() != 0) {
-            Commit c = readObject(join(COMMIT_DIR, queue.get(0)), Commit.class);
-            if (c.getMergeprt1() != null) {
-                queue.addLast(c.getMergeprt2());
-                queue.addLast(c.getMergeprt1());
-            } else if (c.getParent() != null) {
-                queue.addLast(c.getParent());
-            }
-            ancestors.add(queue.get(0));
-            queue.removeFirst();
+    public static void createBranch(String branchName) {
+        //creates branchName at the head commit
+        if (Refs.exists(branchName)) {
+            throw error("A branch with that name already exists.");
         }
-        return ancestors;
+        setBranch(branchName, getHeadCommit());
     }
 
+    public static void switchBranch(String branchName) {
+        //checks out branchName, failing as the checkout command does
+        if (branchName.equals(getCurrentBranch())) {
+            throw error("No need to checkout the current branch.");
+        }
+        if (hasUntrackedFiles()) {
+            throw error("There is an untracked file in the way; delete it, or add and commit it first.");
+        }
+        if (!Refs.exists(branchName)) {
+            throw error("No such branch exists.");
+        }
+        Worktree.checkNotCheckedOut(branchName);
+        checkoutBranch(Refs.get(branchName), branchName);
+    }
 
-
-    public static String findCommonAncestor(String commitID,
-                                            TreeSet<String> ancestorsOtherBranch) {
-
-        LinkedList<String> queue = new LinkedList<>();
-        queue.addLast(commitID);
-        while (queue.size() != 0) {
-            Commit c = readObject(join(COMMIT_DIR, queue.getFirst()), Commit.class);
-            if (ancestorsOtherBranch.contains(queue.getFirst())) {
-                return queue.getFirst();
-            } else if (c.getMergeprt1() != null) {
-                queue.addLast(c.getMergeprt2());
-                queue.addLast(c.getMergeprt1());
-
-            } else if (c.getParent() != null) {
-                queue.addLast(c.getParent());
+    public static void updateWorkingFiles(String from, String to) {
+        //moves the working directory from the files of commit from to those
+        //of commit to, writing or deleting only files whose blob differs;
+        //fails without changing anything if an untracked file is in the way
+        FileTable old = ObjectStore.readCommit(from).getFileList();
+        FileTable target = ObjectStore.readCommit(to).getFileList();
+        FileTable.Join files = new FileTable.Join(old, target);
+        while (files.next()) {
+            if (!files.has(0) && files.has(1)) {
+                String name = files.name();
+                if (Sparse.includes(name) && join(CWD, name).exists()) {
+                    throw new GitletException("There is an untracked file in the way;"
+                        + " delete it, or add and commit it first.");
+                }
+            }
+        }
+        files = new FileTable.Join(old, target);
+        while (files.next()) {
+            if (files.same(0, 1)) {
+                continue;
+            }
+            String name = files.name();
+            if (!Sparse.includes(name)) {
+                continue;
+            }
+            if (files.has(1)) {
+                ObjectStore.copyBlob(files.hash(1), join(CWD, name));
+            } else {
+                restrictedDelete(join(CWD, name));
             }
-            queue.removeFirst();
         }
-        return null;
-
     }
 
     public static boolean hasUncomittedChanges() {
-        Stage stage = readObject(STAGE, Stage.class);
+        Stage stage = Stage.load();
         if (stage.getFiles().size() != 0 || stage.getRemovals().size() != 0) {
             return true;
         }
@@ -195,9 +215,9 @@ public class Repository implements Serializable {
 
     public static boolean hasUntrackedFiles() {
         List<String> filesInCWD = plainFilenamesIn(CWD);
-        Commit c = readObject(join(COMMIT_DIR, getHeadCommit()), Commit.class);
+        Commit c = ObjectStore.readCommit(getHeadCommit());
         for (String file : filesInCWD) {
-            if (!c.getFileList().containsKey(file)) {
+            if (Sparse.includes(file) && !c.getFileList().containsKey(file)) {
                 return true;
             }
         }
@@ -219,18 +239,20 @@ public class Repository implements Serializable {
     }
 
     public static String mergeFiles(String hashIDCurrent, String hashIDOther) {
+        String fileName = conflictFile(hashIDCurrent, hashIDOther);
+        Output.out().println("Encountered a merge conflict.");
+        return fileName;
+    }
+
+    public static String conflictFile(String hashIDCurrent, String hashIDOther) {
+        //writes the conflict-marked blob of two versions (null if absent) without reporting it
         String contentCurrent = "";
         String contentOther = "";
         if (hashIDCurrent != null) {
-            contentCurrent = readContentsAsString(join(GITLET_DIR, hashIDCurrent));
-        } else {
-            contentCurrent = "";
+            contentCurrent = new String(ObjectStore.readBlob(hashIDCurrent), StandardCharsets.UTF_8);
         }
-
         if (hashIDOther != null) {
-            contentOther = readContentsAsString(join(GITLET_DIR, hashIDOther));
-        } else {
-            contentOther = "";
+            contentOther = new String(ObjectStore.readBlob(hashIDOther), StandardCharsets.UTF_8);
         }
         return createMergeConflictFile(contentCurrent, contentOther);
     }
@@ -238,47 +260,46 @@ public class Repository implements Serializable {
     public static String createMergeConflictFile(String content1, String content2) {
         String concatenatedContent = "<<<<<<< HEAD\n" + content1
                 + "=======\n" + content2 + ">>>>>>>\n";
-        String fileName = sha1(concatenatedContent);
-        File mcFIle = join(GITLET_DIR, fileName);
-        try {
-            mcFIle.createNewFile();
-        } catch (IOException e) {
-            System.out.println("Error");
-        }
-        writeContents(mcFIle, concatenatedContent);
-        System.out.println("Encountered a merge conflict.");
-        return fileName;
+        return ObjectStore.writeBlob(concatenatedContent.getBytes(StandardCharsets.UTF_8));
     }
 
 
-    public static void printUntrackedFiles(String commitID) {
-        Commit c = readObject(join(COMMIT_DIR, commitID), Commit.class);
-        List<String> filesInCWD = plainFilenamesIn(CWD);
-        Stage stage = readObject(STAGE, Stage.class);
-        for (String fileName : filesInCWD) {
+    public static List<String> untrackedFiles(String commitID, Map<String, String> working) {
+        //the files in working that neither commit commitID nor the stage tracks
+        Commit c = ObjectStore.readCommit(commitID);
+        Stage stage = Stage.load();
+        List<String> result = new ArrayList<>();
+        for (String fileName : working.keySet()) {
             if (!c.getFileList().containsKey(fileName) && !stage.getFiles().containsKey(fileName)) {
-                System.out.println(fileName);
+                result.add(fileName);
             }
         }
+        return result;
     }
 
-    public static void printModifiedFiles(String commitID) {
-        Commit c = readObject(join(COMMIT_DIR, commitID), Commit.class);
-        Stage stage = readObject(STAGE, Stage.class);
+    public static Map<String, String> modifiedFiles(String commitID, Map<String, String> working) {
+        //working maps each file in CWD to the hash of its contents; maps each
+        //file of commit commitID that differs from it to "modified" or "deleted"
+        Commit c = ObjectStore.readCommit(commitID);
+        Stage stage = Stage.load();
+        Map<String, String> result = new LinkedHashMap<>();
         for (Map.Entry<String, String> filesInCommit : c.getFileList().entrySet()) {
-            if (!join(CWD, filesInCommit.getKey()).exists()
-                    && !stage.getRemovals().containsKey(filesInCommit.getKey())) {
-                System.out.println(filesInCommit.getKey() + " (deleted)");
+            if (!Sparse.includes(filesInCommit.getKey())) {
+                continue;
+            }
+            String contentHash = working.get(filesInCommit.getKey());
+            if (contentHash == null) {
+                if (!stage.getRemovals().containsKey(filesInCommit.getKey())) {
+                    result.put(filesInCommit.getKey(), "deleted");
+                }
                 continue;
             }
-            byte[] contents = readContents(join(CWD, filesInCommit.getKey()));
-            String contentHash = sha1(contents);
 
             if (!filesInCommit.getValue().equals(contentHash)) {
-                System.out.println(filesInCommit.getKey() + " (modified)");
+                result.put(filesInCommit.getKey(), "modified");
             }
 
         }
-
+        return result;
     }
 }
@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** The history boundary of a shallow repository.
+ *
+ *  A clone made with --depth, or a fetch from a shallow repository, may
+ *  stop copying history partway. Every copied commit whose parents were not
+ *  copied is listed, one id per line, in .gitlet/shallow. History walks
+ *  (log, merge base search, gc marking, transfers) treat those commits as
+ *  if they had no parents.
+ *
+ *  @author Ting-Che Lin
+ */
+class Shallow {
+
+    /** The boundary file. */
+    static final File SHALLOW = join(GITLET_DIR, "shallow");
+
+    /** The boundary of this repository, or null until first used. */
+    private static Set<String> boundary;
+
+    /** Returns true if the parents of commit ID are not in this
+     *  repository. */
+    static boolean isBoundary(String id) {
+        if (boundary == null) {
+            boundary = load(GITLET_DIR);
+        }
+        return boundary.contains(id);
+    }
+
+    /** Forgets the loaded boundary so the next call rereads it. */
+    static void invalidate() {
+        boundary = null;
+    }
+
+    /** Returns the boundary of the repository whose .gitlet directory is
+     *  DIR. */
+    static Set<String> load(File dir) {
+        TreeSet<String> result = new TreeSet<>();
+        File file = join(dir, SHALLOW.getName());
+        if (file.exists()) {
+            for (String line : readContentsAsString(file).split("\n")) {
+                if (!line.isEmpty()) {
+                    result.add(line);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Recomputes the boundary of the repository whose .gitlet directory is
+     *  DIR after the commits ADDED were copied into it: a commit is on the
+     *  boundary if one of its parents is missing. */
+    static void update(File dir, Collection<String> added) {
+        File commitDir = join(dir, COMMIT_DIR.getName());
+        Set<String> old = load(dir);
+        TreeSet<String> result = new TreeSet<>();
+        TreeSet<String> candidates = new TreeSet<>(old);
+        candidates.addAll(added);
+        for (String id : candidates) {
+            Commit c = ObjectStore.readCommit(commitDir, id);
+            if ((c.getParent() != null && !join(commitDir, c.getParent()).exists())
+                || (c.getMergeprt2() != null
+                    && !join(commitDir, c.getMergeprt2()).exists())) {
+                result.add(id);
+            }
+        }
+        if (result.equals(old)) {
+            return;
+        }
+        File file = join(dir, SHALLOW.getName());
+        if (result.isEmpty()) {
+            file.delete();
+        } else {
+            writeContents(file, String.join("\n", result) + "\n");
+        }
+        Reachability.clear(dir);
+        if (dir.equals(GITLET_DIR)) {
+            boundary = result;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Sparse checkout: limits the working directory to the files whose names
+ *  match one of the glob patterns in the worktree's sparse_checkout file.
+ *
+ *  Commits still track every file; only the working directory is sparse.
+ *  Commands that write the working directory skip unselected files, so
+ *  their blobs are never read, and commands that look at it (status,
+ *  diff, the untracked-file checks) treat unselected files as if they
+ *  were there unchanged. Without a patterns file every file is selected.
+ *
+ *  @author Ting-Che Lin
+ */
+class Sparse {
+
+    /** The patterns file, one glob per line. */
+    static final File PATTERNS = join(WORKTREE_DIR, "sparse_checkout");
+
+    /** The compiled patterns, empty if checkout is not sparse; null until
+     *  first used. */
+    private static List<PathMatcher> matchers;
+
+    /** Returns true if file NAME belongs in the working directory. */
+    static boolean includes(String name) {
+        if (matchers == null) {
+            matchers = compile(PATTERNS.exists()
+                ? readContentsAsString(PATTERNS).split("\n") : new String[0]);
+        }
+        if (matchers.isEmpty()) {
+            return true;
+        }
+        Path path = Path.of(name);
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Forgets the compiled patterns so the next call rereads them. */
+    static void invalidate() {
+        matchers = null;
+    }
+
+    /** Runs sparse-checkout set PATTERNS... (or disable, if PATTERNS is
+     *  empty): selects the files matching PATTERNS, writing the newly
+     *  selected files of the head commit and deleting the deselected ones.
+     *  Refuses to delete a file with changes that are not committed. */
+    static void set(String[] patterns) {
+        Map<String, String> tracked =
+            ObjectStore.readCommit(getHeadCommit()).getFileList();
+        matchers = compile(patterns);
+        List<String> dropped = new ArrayList<>();
+        for (Map.Entry<String, String> file : tracked.entrySet()) {
+            String name = file.getKey();
+            File working = join(CWD, name);
+            if (includes(name) || !working.isFile()) {
+                continue;
+            }
+            if (!sha1(readContents(working)).equals(file.getValue())) {
+                throw new GitletException("Your local changes to " + name
+                    + " would be lost; commit or stash them first.");
+            }
+            dropped.add(name);
+        }
+
+        if (patterns.length == 0) {
+            PATTERNS.delete();
+        } else {
+            writeContents(PATTERNS, String.join("\n", patterns) + "\n");
+        }
+        Watcher.CACHE.delete();
+        for (String name : dropped) {
+            restrictedDelete(join(CWD, name));
+        }
+        Stage stage = Stage.load();
+        for (Map.Entry<String, String> file : tracked.entrySet()) {
+            if (includes(file.getKey()) && !join(CWD, file.getKey()).exists()
+                && !stage.getRemovals().containsKey(file.getKey())) {
+                ObjectStore.copyBlob(file.getValue(), join(CWD, file.getKey()));
+            }
+        }
+    }
+
+    /** Runs sparse-checkout list. */
+    static void list() {
+        if (PATTERNS.exists()) {
+            Output.out().print(readContentsAsString(PATTERNS));
+        }
+    }
+
+    /** Returns matchers for the non-empty globs in PATTERNS. */
+    private static List<PathMatcher> compile(String[] patterns) {
+        List<PathMatcher> result = new ArrayList<>();
+        for (String pattern : patterns) {
+            if (!pattern.isEmpty()) {
+                result.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+            }
+        }
+        return result;
+    }
+}
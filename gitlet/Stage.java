@@ -1,12 +1,34 @@
 package gitlet;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.TreeMap;
 import static gitlet.Repository.*;
 import static gitlet.Utils.*;
 
+/** The staging area of a worktree.
+ *
+ *  The stage is saved whole (serialized) in STAGE, and add and rm append
+ *  one record each to STAGE_LOG instead of rewriting it: "+ HASH NAME"
+ *  (add a changed file), "u NAME" (add an unchanged file), "r NAME" (rm a
+ *  tracked file) or "x NAME" (rm an untracked one). Reading the stage
+ *  replays the log over the saved stage; saving it (as commit does)
+ *  empties the log. Records do not depend on the head commit, so the log
+ *  stays valid when the head moves.
+ *
+ *  @author Ting-Che Lin
+ */
 public class Stage implements Serializable {
+
+    /** Fixed at the value the class had before the stage log, so stages
+     *  saved earlier (and stashes holding them) can still be read. */
+    private static final long serialVersionUID = -146349604138134661L;
+
+    /** Log size in bytes past which it is compacted. */
+    private static final long LOG_THRESHOLD = 64 * 1024;
+
     private TreeMap<String, String> files; //keys are file names, values are files hashes
     private TreeMap<String, String> removals; //key-value same as files
     public Stage() {
@@ -14,52 +36,126 @@ public class Stage implements Serializable {
         removals = new TreeMap<>();
     }
 
-    public void addFile(String s) {
-        if (files.size() != 0 && files.containsKey(s)) { //exits if file already in staging area
-            System.exit(0);
-        }
+    public void addExistingFile(String fileName, String fileHash) {
+        files.put(fileName, fileHash);
+    }
 
-        byte[] snap = readContents(join(CWD, s));
+    /** Runs add FILENAME: stages the file's current contents, as one
+     *  append to the stage log. */
+    static void add(String fileName) {
+        byte[] snap = readContents(join(CWD, fileName));
         String snapName = Utils.sha1(snap);
-
-        if (removals.containsKey(s)) { //if file is staged for removal, unstage it from removal
-            removals.remove(s);
+        String tracked = ObjectStore.readCommit(getHeadCommit())
+            .getFileList().get(fileName);
+        if (snapName.equals(tracked)) { //unchanged: at most unstage a removal
+            append("u " + fileName);
         } else {
+            ObjectStore.writeBlob(snap);
+            append("+ " + snapName + " " + fileName);
+        }
+    }
 
-            if (join(COMMIT_DIR, getHeadCommit()).exists()) {
-                Commit headCommit
-                        = Utils.readObject(join(COMMIT_DIR, getHeadCommit()), Commit.class);
-                //See if the file is tracked by head commit
-                if (headCommit.getFileList().containsKey(s)
-                        && headCommit.getFileList().get(s).equals(snapName)) {
-                    System.exit(0);
-                }
-            }
+    /** Runs rm FILENAME, as one append to the stage log. Only a file the
+     *  head commit does not track needs the whole stage read. */
+    static void remove(String fileName) {
+        if (ObjectStore.readCommit(getHeadCommit()).getFileList()
+                .containsKey(fileName)) {
+            append("r " + fileName);
+            restrictedDelete(join(CWD, fileName));
+            return;
+        }
+        Stage stage = load();
+        if (!stage.files.containsKey(fileName)
+                && !stage.removals.containsKey(fileName)) {
+            throw error("No reason to remove the file.");
+        }
+        append("x " + fileName);
+    }
+
+    /** Returns the stage of this worktree. */
+    static Stage load() {
+        return load(WORKTREE_DIR);
+    }
 
-            File snapf = join(GITLET_DIR, snapName); // create a new snap file in .gitlet
-            try {
-                snapf.createNewFile();
-            } catch (IOException excp) {
-                System.out.println("Error");
+    /** Returns the stage of the worktree whose directory is DIR: the saved
+     *  stage with the log replayed on top. */
+    static Stage load(File dir) {
+        Stage stage = readObject(join(dir, STAGE.getName()), Stage.class);
+        File log = join(dir, STAGE_LOG.getName());
+        if (!log.isFile() && Journal.pending(log) == null) {
+            return stage;
+        }
+        String records = readContentsAsString(log);
+        // a record cut short by a crash never reached its newline
+        int end = records.lastIndexOf('\n') + 1;
+        for (String record : records.substring(0, end).split("\n")) {
+            if (!record.isEmpty()) {
+                stage.replay(record);
             }
+        }
+        return stage;
+    }
 
-            writeContents(snapf, snap);
-            files.put(s, snapName);
+    /** Saves STAGE as this worktree's stage and empties the log. */
+    static void save(Stage stage) {
+        writeObject(STAGE, stage);
+        if (STAGE_LOG.isFile() || Journal.pending(STAGE_LOG) != null) {
+            writeContents(STAGE_LOG, new byte[0]);
         }
     }
 
-    public void addExistingFile(String fileName, String fileHash) {
-        files.put(fileName, fileHash);
+    /** Appends RECORD to the stage log, compacting the log into the saved
+     *  stage once it outgrows both LOG_THRESHOLD and the saved stage, so
+     *  that compaction costs O(1) per record over time. */
+    private static void append(String record) {
+        dropTornRecord();
+        appendContents(STAGE_LOG, (record + "\n").getBytes(StandardCharsets.UTF_8));
+        if (STAGE_LOG.length() > Math.max(LOG_THRESHOLD, STAGE.length())) {
+            save(load());
+        }
     }
 
-    public void removeFile(String s) {
-        Commit c = readObject(join(COMMIT_DIR, getHeadCommit()), Commit.class);
-        String removal = files.remove(s);
-        if (c.getFileList().containsKey(s)) {
-            removals.put(s, removal);
-            restrictedDelete(s);
+    /** Cuts off a record that a crash left without its newline, so that
+     *  the next record does not run into it. Reads only the last byte
+     *  unless there is one. */
+    private static void dropTornRecord() {
+        if (!STAGE_LOG.isFile() || STAGE_LOG.length() == 0) {
+            return;
+        }
+        try (RandomAccessFile log = new RandomAccessFile(STAGE_LOG, "rw")) {
+            log.seek(log.length() - 1);
+            if (log.read() != '\n') {
+                String records = readContentsAsString(STAGE_LOG);
+                log.setLength(records.lastIndexOf('\n') + 1);
+            }
+        } catch (IOException excp) {
+            throw error("Could not repair the stage log: %s", excp.getMessage());
         }
+    }
 
+    /** Applies one log RECORD, as add or rm would have. */
+    private void replay(String record) {
+        switch (record.charAt(0)) {
+            case '+': //stage a new version unless already staged
+                String fileName = record.substring(UID_LENGTH + 3);
+                if (removals.containsKey(fileName)) {
+                    removals.remove(fileName);
+                } else if (!files.containsKey(fileName)) {
+                    files.put(fileName, record.substring(2, UID_LENGTH + 2));
+                }
+                break;
+            case 'u': //unchanged from head
+                removals.remove(record.substring(2));
+                break;
+            case 'r': //tracked file removed
+                removals.put(record.substring(2), files.remove(record.substring(2)));
+                break;
+            case 'x': //untracked file unstaged
+                files.remove(record.substring(2));
+                break;
+            default:
+                throw error("Corrupt stage log record: %s", record);
+        }
     }
 
     public void clearStage() {
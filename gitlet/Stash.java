@@ -0,0 +1,218 @@
+package gitlet;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** The stash command: shelves uncommitted work without making a commit.
+ *
+ *  An entry records the stage as it was and, for every file the head
+ *  commit tracks or the stage adds, the hash of its working contents where
+ *  those differ from the head (or that it was deleted). Working contents
+ *  are stored as ordinary blobs, so anything already in the object store
+ *  is not written again. Pushing puts those files back as the head has
+ *  them and popping puts the stashed versions back; both rewrite only the
+ *  files whose contents actually differ. Entries live, newest first, in
+ *  .gitlet/stash, and gc keeps their commits and blobs. Push makes the
+ *  entry and its blobs durable before it touches the working directory, so
+ *  a crash in between loses no work.
+ *
+ *  @author Ting-Che Lin
+ */
+public class Stash implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The stash file. */
+    static final File STASH = join(GITLET_DIR, "stash");
+
+    /** One stashed state. */
+    private static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /** The head commit and branch when stashed. */
+        private String base;
+        private String branch;
+        /** The message given to stash push, or null. */
+        private String message;
+        private Stage stage;
+        /** Working files that differ from the head, by hash of contents. */
+        private TreeMap<String, String> working = new TreeMap<>();
+        /** Tracked or staged files that were missing. */
+        private TreeSet<String> deleted = new TreeSet<>();
+    }
+
+    /** The entries, newest first. */
+    private ArrayList<Entry> entries = new ArrayList<>();
+
+    /** Runs stash push [MESSAGE]; MESSAGE may be null. */
+    static void push(String message) {
+        Commit head = ObjectStore.readCommit(getHeadCommit());
+        Map<String, String> tracked = head.getFileList();
+        Entry entry = new Entry();
+        entry.base = head.getId();
+        entry.branch = getCurrentBranch();
+        entry.message = message;
+        entry.stage = Stage.load();
+
+        TreeMap<String, String> working = Watcher.workingTree();
+        TreeSet<String> names = new TreeSet<>(tracked.keySet());
+        names.addAll(entry.stage.getFiles().keySet());
+        for (String name : names) {
+            if (!Sparse.includes(name)) {
+                continue;
+            }
+            String hash = working.get(name);
+            if (hash == null) {
+                entry.deleted.add(name);
+            } else if (!hash.equals(tracked.get(name))) {
+                // the entry names what is stored, not what was cached
+                entry.working.put(name,
+                    ObjectStore.writeBlob(readContents(join(CWD, name))));
+            }
+        }
+        if (entry.working.isEmpty() && entry.deleted.isEmpty()
+            && entry.stage.getFiles().isEmpty()
+            && entry.stage.getRemovals().isEmpty()) {
+            throw error("No local changes to save.");
+        }
+        Stage.save(new Stage());
+        Stash stash = load();
+        stash.entries.add(0, entry);
+        writeObject(STASH, stash);
+        // the entry and its blobs are only buffered so far
+        Journal.commit();
+        Journal.begin();
+
+        for (String name : entry.working.keySet()) {
+            if (tracked.containsKey(name)) {
+                ObjectStore.copyBlob(tracked.get(name), join(CWD, name));
+            } else {
+                restrictedDelete(join(CWD, name));
+            }
+        }
+        for (String name : entry.deleted) {
+            if (tracked.containsKey(name)) {
+                ObjectStore.copyBlob(tracked.get(name), join(CWD, name));
+            }
+        }
+    }
+
+    /** Runs stash pop [INDEX]: restores entry INDEX and drops it. */
+    static void pop(String index) {
+        Stash stash = load();
+        int i = parseIndex(stash, index);
+        Entry entry = stash.entries.get(i);
+        if (hasUncomittedChanges()) {
+            throw error("You have uncommitted changes.");
+        }
+        Map<String, String> tracked =
+            ObjectStore.readCommit(getHeadCommit()).getFileList();
+        TreeMap<String, String> working = Watcher.workingTree();
+        TreeSet<String> touched = new TreeSet<>(entry.working.keySet());
+        touched.addAll(entry.deleted);
+        for (String name : touched) {
+            String current = working.get(name);
+            if (current == null || current.equals(tracked.get(name))
+                || current.equals(entry.working.get(name))) {
+                continue;
+            }
+            if (tracked.containsKey(name)) {
+                throw new GitletException("Your local changes to " + name
+                    + " would be overwritten by stash pop.");
+            }
+            throw error("There is an untracked file in the way;"
+                + " delete it, or add and commit it first.");
+        }
+
+        for (Map.Entry<String, String> file : entry.working.entrySet()) {
+            if (!file.getValue().equals(working.get(file.getKey()))) {
+                ObjectStore.copyBlob(file.getValue(), join(CWD, file.getKey()));
+            }
+        }
+        for (String name : entry.deleted) {
+            if (working.containsKey(name)) {
+                restrictedDelete(join(CWD, name));
+            }
+        }
+        Stage.save(entry.stage);
+        stash.entries.remove(i);
+        writeObject(STASH, stash);
+    }
+
+    /** Runs stash list. */
+    static void list() {
+        Stash stash = load();
+        for (int i = 0; i < stash.entries.size(); i += 1) {
+            Entry entry = stash.entries.get(i);
+            if (entry.message != null) {
+                Output.out().printf("stash@{%d}: On %s: %s%n", i, entry.branch,
+                                  entry.message);
+            } else {
+                Output.out().printf("stash@{%d}: WIP on %s: %s %s%n", i,
+                                  entry.branch, entry.base.substring(0, 7),
+                                  ObjectStore.readCommit(entry.base).getMessage());
+            }
+        }
+    }
+
+    /** Runs stash drop [INDEX]. */
+    static void drop(String index) {
+        Stash stash = load();
+        int i = parseIndex(stash, index);
+        stash.entries.remove(i);
+        writeObject(STASH, stash);
+        Output.out().printf("Dropped stash@{%d}%n", i);
+    }
+
+    /** Returns the commits the stash refers to. */
+    static List<String> commits() {
+        List<String> result = new ArrayList<>();
+        for (Entry entry : load().entries) {
+            result.add(entry.base);
+        }
+        return result;
+    }
+
+    /** Returns the blobs the stash refers to. */
+    static List<String> blobs() {
+        List<String> result = new ArrayList<>();
+        for (Entry entry : load().entries) {
+            result.addAll(entry.working.values());
+            result.addAll(entry.stage.getFiles().values());
+        }
+        return result;
+    }
+
+    /** Returns the position in STASH named by INDEX ("N" or "stash@{N}",
+     *  0 if null), failing if there is no such entry. */
+    private static int parseIndex(Stash stash, String index) {
+        int i = -1;
+        if (index == null) {
+            i = 0;
+        } else {
+            String digits = index.startsWith("stash@{") && index.endsWith("}")
+                ? index.substring(7, index.length() - 1) : index;
+            try {
+                i = Integer.parseInt(digits);
+            } catch (NumberFormatException excp) {
+                i = -1;
+            }
+        }
+        if (i < 0 || i >= stash.entries.size()) {
+            throw error("No stash entry found.");
+        }
+        return i;
+    }
+
+    /** Returns the stash, empty if nothing was ever stashed. */
+    private static Stash load() {
+        return STASH.exists() ? readObject(STASH, Stash.class) : new Stash();
+    }
+}
@@ -0,0 +1,148 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/** Counters for the I/O and hashing hot paths.
+ *
+ *  Each instrumented call site takes start() before the work and passes it
+ *  to record() after, with the number of bytes involved. When the --stats
+ *  flag is given, record() keeps a count, a byte total and a latency
+ *  histogram (power-of-two microsecond buckets) per operation, and
+ *  printSummary() reports them when the command ends. Each read or write
+ *  is counted at one layer only: readObject and writeObject are not
+ *  counted again as readContents or writeContents, and writeCommit and
+ *  writeBlob write their files directly. A write deferred to a Journal
+ *  transaction is counted when the transaction commits and the bytes reach
+ *  the file, so it counts once, with the latency of the file write,
+ *  whether or not a transaction was open. Independently, every operation is
+ *  emitted as a gitlet.Operation JFR event, which costs only a flag check
+ *  unless a flight recording is running, e.g. with
+ *  -XX:StartFlightRecording.
+ *
+ *  @author Ting-Che Lin
+ */
+class Stats {
+
+    /** The instrumented operations. */
+    enum Op {
+        READ_OBJECT("readObject"),
+        WRITE_OBJECT("writeObject"),
+        READ_CONTENTS("readContents"),
+        WRITE_CONTENTS("writeContents"),
+        SHA1("sha1"),
+        READ_COMMIT("readCommit"),
+        WRITE_COMMIT("writeCommit"),
+        READ_BLOB("readBlob"),
+        WRITE_BLOB("writeBlob"),
+        ANCESTORS("reachable"),
+        CHECKOUT_FILE("checkoutFile");
+
+        private final String label;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        Op(String label) {
+            this.label = label;
+        }
+    }
+
+    /** Number of histogram buckets. Bucket i counts calls that took less
+     *  than 2^i microseconds; the last one takes everything slower. */
+    private static final int BUCKETS = 32;
+
+    /** True if --stats was given. */
+    private static volatile boolean enabled;
+
+    /** Starts collecting counters. */
+    static void enable() {
+        enabled = true;
+    }
+
+    /** Returns true if counters are being collected. */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Returns a start time for record(). */
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /** Records one OP that began at START and touched BYTES bytes. */
+    static void record(Op op, long start, long bytes) {
+        long elapsed = System.nanoTime() - start;
+        if (enabled) {
+            op.count.increment();
+            op.bytes.add(bytes);
+            op.nanos.add(elapsed);
+            long micros = elapsed / 1000;
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            op.buckets.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+        }
+        OperationEvent event = new OperationEvent();
+        if (event.isEnabled()) {
+            event.operation = op.label;
+            event.bytes = bytes;
+            event.latency = elapsed;
+            event.commit();
+        }
+    }
+
+    /** Prints one line per operation that ran to OUT. */
+    static void printSummary(PrintStream out) {
+        out.printf("%-16s %8s %12s %10s %10s %10s%n", "operation", "count",
+                   "bytes", "total ms", "p50 us", "p99 us");
+        for (Op op : Op.values()) {
+            long count = op.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            out.printf("%-16s %8d %12d %10.2f %10s %10s%n", op.label, count,
+                       op.bytes.sum(), op.nanos.sum() / 1e6,
+                       percentile(op, count, 0.50), percentile(op, count, 0.99));
+        }
+    }
+
+    /** Returns the upper bound, in microseconds, of the histogram bucket
+     *  holding the FRACTION quantile of the COUNT calls of OP. */
+    private static String percentile(Op op, long count, double fraction) {
+        long rank = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i += 1) {
+            seen += op.buckets.get(i);
+            if (seen >= rank) {
+                return i == BUCKETS - 1 ? "max" : "<" + (1L << i);
+            }
+        }
+        return "max";
+    }
+
+    /** The JFR event emitted for every instrumented operation. */
+    @Name("gitlet.Operation")
+    @Label("Gitlet Operation")
+    @Category("Gitlet")
+    @Description("An object store, file or hashing operation")
+    @StackTrace(false)
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Bytes")
+        long bytes;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+}
@@ -1,16 +1,20 @@
 package gitlet;
 
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -36,13 +40,18 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        long start = Stats.start();
+        long bytes = 0;
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
+                    bytes += ((byte[]) val).length;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    byte[] utf8 = ((String) val).getBytes(StandardCharsets.UTF_8);
+                    md.update(utf8);
+                    bytes += utf8.length;
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
@@ -51,6 +60,7 @@ class Utils {
             for (byte b : md.digest()) {
                 result.format("%02x", b);
             }
+            Stats.record(Stats.Op.SHA1, start, bytes);
             return result.toString();
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
@@ -63,14 +73,38 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns the SHA-1 hash of everything IN yields, reading it a buffer
+     *  at a time rather than all at once. Does not close IN. */
+    static String sha1(InputStream in) throws IOException {
+        long start = Stats.start();
+        long bytes = 0;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[1 << 16];
+            for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+                bytes += n;
+            }
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) {
+                result.format("%02x", b);
+            }
+            Stats.record(Stats.Op.SHA1, start, bytes);
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
      *  if FILE was deleted, and false otherwise.  Refuses to delete FILE
      *  and throws IllegalArgumentException unless the directory designated by
-     *  FILE also contains a directory named .gitlet. */
+     *  FILE also contains a directory named .gitlet (or, in a linked
+     *  worktree, a file of that name). */
     static boolean restrictedDelete(File file) {
-        if (!(new File(file.getParentFile(), ".gitlet")).isDirectory()) {
+        if (!(new File(file.getParentFile(), ".gitlet")).exists()) {
             throw new IllegalArgumentException("not .gitlet working directory");
         }
         if (!file.isDirectory()) {
@@ -83,7 +117,7 @@ class Utils {
     /** Deletes the file named FILE if it exists and is not a directory.
      *  Returns true if FILE was deleted, and false otherwise.  Refuses
      *  to delete FILE and throws IllegalArgumentException unless the
-     *  directory designated by FILE also contains a directory named .gitlet. */
+     *  directory designated by FILE also contains a .gitlet entry. */
     static boolean restrictedDelete(String file) {
         return restrictedDelete(new File(file));
     }
@@ -94,6 +128,20 @@ class Utils {
      *  be a normal file.  Throws IllegalArgumentException
      *  in case of problems. */
     static byte[] readContents(File file) {
+        long start = Stats.start();
+        byte[] contents = readBytes(file);
+        Stats.record(Stats.Op.READ_CONTENTS, start, contents.length);
+        return contents;
+    }
+
+    /** Returns the entire contents of FILE, as readContents does, without
+     *  recording it in Stats; for callers that record their own
+     *  operation. */
+    static byte[] readBytes(File file) {
+        byte[] pending = Journal.pending(file);
+        if (pending != null) {
+            return pending;
+        }
         if (!file.isFile()) {
             throw new IllegalArgumentException("must be a normal file");
         }
@@ -113,16 +161,13 @@ class Utils {
 
     /** Write the result of concatenating the bytes in CONTENTS to FILE,
      *  creating or overwriting it as needed.  Each object in CONTENTS may be
-     *  either a String or a byte array.  Throws IllegalArgumentException
-     *  in case of problems. */
+     *  either a String or a byte array.  FILE is replaced atomically, so a
+     *  reader sees either the old or the new contents, never a mix.  While
+     *  a Journal transaction is open, writes inside .gitlet are deferred to
+     *  it.  Throws IllegalArgumentException in case of problems. */
     static void writeContents(File file, Object... contents) {
         try {
-            if (file.isDirectory()) {
-                throw
-                    new IllegalArgumentException("cannot overwrite directory");
-            }
-            BufferedOutputStream str =
-                new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+            ByteArrayOutputStream str = new ByteArrayOutputStream();
             for (Object obj : contents) {
                 if (obj instanceof byte[]) {
                     str.write((byte[]) obj);
@@ -130,21 +175,77 @@ class Utils {
                     str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
                 }
             }
-            str.close();
+            writeBytes(file, str.toByteArray(), Stats.Op.WRITE_CONTENTS);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
+    /** Writes BYTES to FILE, as writeContents does, and records it in
+     *  Stats as OP when the bytes reach FILE: now, or when the Journal
+     *  transaction it went to commits. */
+    private static void writeBytes(File file, byte[] bytes, Stats.Op op) {
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        if (Journal.record(file, bytes, op)) {
+            return;
+        }
+        long start = Stats.start();
+        try {
+            atomicWrite(file, bytes);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        Stats.record(op, start, bytes.length);
+    }
+
+    /** Append BYTES to FILE, creating it if needed.  While a Journal
+     *  transaction is open, appends inside .gitlet are deferred to it.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void appendContents(File file, byte[] bytes) {
+        if (Journal.recordAppend(file, bytes)) {
+            return;
+        }
+        try {
+            Files.write(file.toPath(), bytes, StandardOpenOption.CREATE,
+                        StandardOpenOption.APPEND);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Replace the contents of FILE with BYTES by writing a temporary file
+     *  next to it and renaming it over FILE. */
+    static void atomicWrite(File file, byte[] bytes) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        Path tmp = Files.createTempFile(target.getParent(),
+                                        "." + file.getName(), ".tmp");
+        try {
+            Files.write(tmp, bytes);
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
                                                  Class<T> expectedClass) {
         try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
+            long start = Stats.start();
+            byte[] bytes = readBytes(file);
+            ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes));
             T result = expectedClass.cast(in.readObject());
             in.close();
+            Stats.record(Stats.Op.READ_OBJECT, start, bytes.length);
             return result;
         } catch (IOException | ClassCastException
                  | ClassNotFoundException excp) {
@@ -154,7 +255,7 @@ class Utils {
 
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        writeBytes(file, serialize(obj), Stats.Op.WRITE_OBJECT);
     }
 
     /* DIRECTORIES */
@@ -164,7 +265,8 @@ class Utils {
         new FilenameFilter() {
             @Override
             public boolean accept(File dir, String name) {
-                return new File(dir, name).isFile();
+                // a linked worktree's .gitlet is a file, but not a working file
+                return new File(dir, name).isFile() && !name.equals(".gitlet");
             }
         };
 
@@ -233,7 +335,7 @@ class Utils {
     /** Print a message composed from MSG and ARGS as for the String.format
      *  method, followed by a newline. */
     static void message(String msg, Object... args) {
-        System.out.printf(msg, args);
-        System.out.println();
+        Output.out().printf(msg, args);
+        Output.out().println();
     }
 }
@@ -0,0 +1,273 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.TreeMap;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/** Incremental working-directory scanning for status.
+ *
+ *  The watch command runs until killed, listening for changes in the
+ *  working directory through a WatchService and appending the name of
+ *  every file touched to .gitlet/watch_log. While a watcher is running,
+ *  status keeps the hash, modification time and size of every working
+ *  file in .gitlet/watch_cache, together with how far into the log it has
+ *  read. On the next run it rehashes the files logged since then and,
+ *  since an event reaches the log some time after its change, any file
+ *  whose modification time or size no longer matches the cache. A file
+ *  hashed within RACY_MILLIS of being modified could change again without
+ *  either changing, so it is rehashed every time until it is older.
+ *
+ *  Each watcher starts the log with a line naming its session (start time
+ *  and process id), which the cache records too: a cache from another
+ *  session may have missed changes made while no watcher ran, so it is
+ *  dropped. If the watcher overflowed, is not running or the cache belongs
+ *  to another session, status falls back to a full scan.
+ *
+ *  status runs without the repository lock, so the cache is replaced by an
+ *  atomic rename and a reader never sees a torn one. Applying the log is
+ *  idempotent, so two status runs that race on the cache at worst redo a
+ *  little work.
+ *
+ *  @author Ting-Che Lin
+ */
+class Watcher {
+
+    /** Names of changed files, one per line. */
+    static final File LOG = join(WORKTREE_DIR, "watch_log");
+
+    /** The cached working tree (a Cache). */
+    static final File CACHE = join(WORKTREE_DIR, "watch_cache");
+
+    /** Held by the running watcher. */
+    static final File LOCK = join(WORKTREE_DIR, "watch_lock");
+
+    /** Log line recording that events were lost. */
+    private static final String LOST = "!overflow";
+
+    /** Start of the first log line, which names the watcher's session. */
+    private static final String SESSION = "!session ";
+
+    /** A file modified less than this long before it is hashed may change
+     *  again without its modification time changing (filesystems keep it
+     *  to as little as a second). */
+    private static final long RACY_MILLIS = 2000;
+
+    /** The working tree as of some point in the watch log. */
+    private static class Cache implements Serializable {
+        private static final long serialVersionUID = 2L;
+        /** The session of the log, from its first line. */
+        String session;
+        /** Bytes of the log already applied to HASHES. */
+        long offset;
+        /** Every plain file in the working directory, mapped to its hash. */
+        TreeMap<String, String> hashes = new TreeMap<>();
+        /** The modification time and size of each file in HASHES when it
+         *  was hashed, or "" if it must be rehashed anyway. */
+        TreeMap<String, String> stats = new TreeMap<>();
+    }
+
+    /** Runs the watch command: records working-directory changes until the
+     *  process is killed. */
+    static void watch() {
+        try (FileChannel ch = FileChannel.open(LOCK.toPath(),
+                 StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             WatchService service = FileSystems.getDefault().newWatchService()) {
+            FileLock lock = ch.tryLock();
+            if (lock == null) {
+                throw error("A watcher is already running.");
+            }
+            CWD.toPath().register(service, ENTRY_CREATE, ENTRY_DELETE,
+                                  ENTRY_MODIFY);
+            // A new session means the cache may have missed changes.
+            String session = System.currentTimeMillis() + "-"
+                + ProcessHandle.current().pid();
+            writeContents(LOG, SESSION + session + "\n");
+            while (true) {
+                WatchKey key = service.take();
+                StringBuilder changed = new StringBuilder();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        changed.append(LOST).append('\n');
+                        continue;
+                    }
+                    String name = event.context().toString();
+                    if (!name.equals(GITLET_DIR.getName())) {
+                        changed.append(name).append('\n');
+                    }
+                }
+                key.reset();
+                Files.write(LOG.toPath(),
+                            changed.toString().getBytes(StandardCharsets.UTF_8),
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } catch (IOException excp) {
+            throw error("Watcher failed: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Returns true if a watcher process is running. */
+    static boolean isRunning() {
+        if (!LOCK.exists()) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(LOCK.toPath(),
+                                               StandardOpenOption.WRITE)) {
+            FileLock probe = ch.tryLock();
+            if (probe == null) {
+                return true;
+            }
+            probe.release();
+            return false;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Returns every plain file in the working directory mapped to the hash
+     *  of its contents, rehashing only what changed if a watcher is
+     *  running. */
+    static TreeMap<String, String> workingTree() {
+        if (!isRunning()) {
+            return scan();
+        }
+        Cache cache = readCache();
+        long logLength = LOG.length();
+        String session = session(logLength);
+        if (cache == null || !session.equals(cache.session)
+            || cache.offset > logLength) {
+            cache = new Cache();
+            cache.session = session;
+            cache.offset = completeLength(logLength);
+        } else {
+            String[] changed = readLog(cache.offset, logLength);
+            cache.offset += changedBytes(changed);
+            if (List.of(changed).contains(LOST)) {
+                cache.hashes.clear();
+                cache.stats.clear();
+            } else {
+                for (String name : changed) {
+                    cache.stats.remove(name);
+                }
+            }
+        }
+        refresh(cache);
+        writeObject(CACHE, cache);
+        return cache.hashes;
+    }
+
+    /** Brings CACHE up to date with the working directory: rehashes every
+     *  file whose modification time or size is not the one recorded, and
+     *  drops files that are gone. */
+    private static void refresh(Cache cache) {
+        TreeMap<String, String> hashes = new TreeMap<>();
+        TreeMap<String, String> stats = new TreeMap<>();
+        for (String name : plainFilenamesIn(CWD)) {
+            if (!Sparse.includes(name)) {
+                continue;
+            }
+            File file = join(CWD, name);
+            long modified = file.lastModified();
+            String stat = modified + " " + file.length();
+            String hash = cache.hashes.get(name);
+            if (hash == null || !stat.equals(cache.stats.get(name))) {
+                hash = sha1(readContents(file));
+                if (System.currentTimeMillis() - modified < RACY_MILLIS) {
+                    stat = "";
+                }
+            }
+            hashes.put(name, hash);
+            stats.put(name, stat);
+        }
+        cache.hashes = hashes;
+        cache.stats = stats;
+    }
+
+    /** Returns the cache, or null if there is none or it cannot be read
+     *  (as when written by an older gitlet). */
+    private static Cache readCache() {
+        if (!CACHE.exists()) {
+            return null;
+        }
+        try {
+            return readObject(CACHE, Cache.class);
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    /** Returns the session named by the first line of the log, whose
+     *  length is LOGLENGTH, or "" if there is none. */
+    private static String session(long logLength) {
+        String[] lines = readLog(0, Math.min(logLength, 256));
+        if (lines.length == 0 || !lines[0].startsWith(SESSION)) {
+            return "";
+        }
+        return lines[0].substring(SESSION.length());
+    }
+
+    /** Hashes every plain file in the working directory. */
+    private static TreeMap<String, String> scan() {
+        TreeMap<String, String> hashes = new TreeMap<>();
+        for (String name : plainFilenamesIn(CWD)) {
+            if (Sparse.includes(name)) {
+                hashes.put(name, sha1(readContents(join(CWD, name))));
+            }
+        }
+        return hashes;
+    }
+
+    /** Returns the complete lines of the log between byte FROM and byte TO.
+     *  A line still being written is left for the next reader. */
+    private static String[] readLog(long from, long to) {
+        if (to <= from) {
+            return new String[0];
+        }
+        try (RandomAccessFile in = new RandomAccessFile(LOG, "r")) {
+            byte[] bytes = new byte[(int) (to - from)];
+            in.seek(from);
+            in.readFully(bytes);
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            int end = text.lastIndexOf('\n');
+            if (end < 0) {
+                return new String[0];
+            }
+            return text.substring(0, end).split("\n");
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns the number of log bytes taken up by the lines CHANGED. */
+    private static long changedBytes(String[] changed) {
+        long bytes = 0;
+        for (String name : changed) {
+            bytes += name.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        return bytes;
+    }
+
+    /** Returns the length of the complete lines in the first LENGTH bytes
+     *  of the log. */
+    private static long completeLength(long length) {
+        String[] lines = readLog(0, length);
+        return changedBytes(lines);
+    }
+}
@@ -0,0 +1,180 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import static gitlet.Repository.*;
+import static gitlet.Utils.*;
+
+/** Linked worktrees: extra working directories of one repository.
+ *
+ *  The working directory of a linked worktree holds, instead of a .gitlet
+ *  directory, a .gitlet file naming the worktree's own directory in
+ *  .gitlet/worktrees. That directory holds what belongs to one working
+ *  directory (its HEAD, stage, watcher files and sparse patterns, see
+ *  WORKTREE_DIR) and a "path" file naming the working directory.
+ *  Everything else, in particular every commit and blob, is shared, so a
+ *  worktree costs one copy of the checked-out files. A branch may be
+ *  checked out in at most one worktree at a time; since every writer
+ *  holds the repository lock, checking that is race-free.
+ *
+ *  @author Ting-Che Lin
+ */
+class Worktree {
+
+    /** The directories of the linked worktrees. */
+    static final File WORKTREES_DIR = join(GITLET_DIR, "worktrees");
+
+    /** Names the working directory of a linked worktree. */
+    private static final String PATH = "path";
+
+    /** Runs worktree add PATH BRANCH: creates a working directory at PATH
+     *  with BRANCH checked out. */
+    static void add(String path, String branch) {
+        File target = absolute(path);
+        if (target.exists()
+            && (!target.isDirectory() || target.list().length > 0)) {
+            throw error("That path already exists and is not empty.");
+        }
+        if (!Refs.exists(branch)) {
+            throw error("A branch with that name does not exist.");
+        }
+        checkNotCheckedOut(branch, null);
+
+        String name = target.getName();
+        File dir = join(WORKTREES_DIR, name);
+        for (int i = 1; dir.exists(); i += 1) {
+            dir = join(WORKTREES_DIR, name + i);
+        }
+        dir.mkdirs();
+        writeObject(join(dir, CURRENT_BRANCH.getName()), branch);
+        writeObject(join(dir, STAGE.getName()), new Stage());
+        writeContents(join(dir, PATH), target.getAbsolutePath());
+
+        target.mkdirs();
+        writeContents(join(target, ".gitlet"), dir.getAbsolutePath() + "\n");
+        for (Map.Entry<String, String> file
+                 : ObjectStore.readCommit(Refs.get(branch)).getFileList().entrySet()) {
+            ObjectStore.copyBlob(file.getValue(), join(target, file.getKey()));
+        }
+    }
+
+    /** Runs worktree list. */
+    static void list() {
+        for (File dir : all()) {
+            Output.out().println(pathOf(dir) + " ["
+                + readObject(join(dir, CURRENT_BRANCH.getName()), String.class) + "]");
+        }
+    }
+
+    /** Runs worktree remove PATH: deletes the linked worktree at PATH and
+     *  its checked-out files, refusing if it has uncommitted changes.
+     *  Untracked files are left where they are. */
+    static void remove(String path) {
+        File target = absolute(path);
+        File dir = null;
+        for (File candidate : linked()) {
+            if (pathOf(candidate).equals(target.getAbsolutePath())) {
+                dir = candidate;
+            }
+        }
+        if (dir == null) {
+            throw error("No such worktree.");
+        }
+        if (dir.equals(WORKTREE_DIR)) {
+            throw error("Cannot remove the current worktree.");
+        }
+        Stage stage = Stage.load(dir);
+        String branch = readObject(join(dir, CURRENT_BRANCH.getName()), String.class);
+        Map<String, String> tracked =
+            ObjectStore.readCommit(Refs.get(branch)).getFileList();
+        boolean changed = !stage.getFiles().isEmpty()
+            || !stage.getRemovals().isEmpty();
+        for (Map.Entry<String, String> file : tracked.entrySet()) {
+            File working = join(target, file.getKey());
+            if (working.isFile()
+                && !sha1(readContents(working)).equals(file.getValue())) {
+                changed = true;
+            }
+        }
+        if (changed) {
+            throw error("That worktree has uncommitted changes.");
+        }
+
+        for (String name : tracked.keySet()) {
+            restrictedDelete(join(target, name));
+        }
+        join(target, ".gitlet").delete();
+        target.delete();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    /** Fails if BRANCH is checked out in a worktree other
+     *  than this one. */
+    static void checkNotCheckedOut(String branch) {
+        checkNotCheckedOut(branch, WORKTREE_DIR);
+    }
+
+    /** Fails if BRANCH is checked out in a worktree other
+     *  than the one whose directory is EXCEPT (which may be null). */
+    private static void checkNotCheckedOut(String branch, File except) {
+        for (File dir : all()) {
+            if (!dir.equals(except) && branch.equals(
+                    readObject(join(dir, CURRENT_BRANCH.getName()), String.class))) {
+                throw new GitletException("That branch is already checked out at "
+                    + pathOf(dir) + ".");
+            }
+        }
+    }
+
+    /** Returns the stages of every worktree. */
+    static List<Stage> stages() {
+        List<Stage> result = new ArrayList<>();
+        for (File dir : all()) {
+            result.add(Stage.load(dir));
+        }
+        return result;
+    }
+
+    /** Returns the HEAD-and-stage directories of every worktree, the main
+     *  one first. */
+    private static List<File> all() {
+        List<File> result = new ArrayList<>();
+        result.add(GITLET_DIR);
+        result.addAll(linked());
+        return result;
+    }
+
+    /** Returns the directories of the linked worktrees. */
+    private static List<File> linked() {
+        List<File> result = new ArrayList<>();
+        File[] dirs = WORKTREES_DIR.listFiles(File::isDirectory);
+        if (dirs != null) {
+            for (File dir : dirs) {
+                result.add(dir);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Returns the working directory of the worktree whose directory is
+     *  DIR. */
+    private static String pathOf(File dir) {
+        return dir.equals(GITLET_DIR) ? GITLET_DIR.getParentFile().getPath()
+            : readContentsAsString(join(dir, PATH));
+    }
+
+    /** Returns PATH resolved against the working directory. */
+    private static File absolute(String path) {
+        File file = new File(path);
+        if (!file.isAbsolute()) {
+            file = join(CWD, path);
+        }
+        return file.toPath().normalize().toFile();
+    }
+}
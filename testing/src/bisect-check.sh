@@ -0,0 +1,3 @@
+#!/bin/sh
+# exits 1 (bad) if f.txt says bad
+! grep -q bad f.txt
@@ -1,6 +1,6 @@
 import sys, re
 from subprocess import \
-     check_output, PIPE, STDOUT, DEVNULL, CalledProcessError, TimeoutExpired
+     call, check_output, PIPE, STDOUT, DEVNULL, CalledProcessError, TimeoutExpired
 from os.path import abspath, basename, dirname, exists, join, splitext
 from getopt import getopt, GetoptError
 from os import chdir, environ, getcwd, mkdir, remove, access, W_OK
@@ -76,6 +76,11 @@ The instructions each have one of the following forms:
           Defines the variable VAR to have the literal value VALUE.  VALUE is
           taken to be a raw Python string (as in r"VALUE").  Substitutions are
           first applied to VALUE.
+   ! COMMAND
+          Run COMMAND with the shell in the current directory, ignoring its
+          output, and report an error if it exits with a nonzero status.
+          CLASSPATH is set as for gitlet, so COMMAND may start gitlet itself
+          (e.g. in the background, for the watch command).
 
 For each TEST.in, reports at most one error.  Without the --show option,
 simply indicates tests passed and failed.  If N is postive, also prints details
@@ -186,6 +191,13 @@ def doExecute(cmnd, dir, timeout, line_num):
     finally:
         chdir(here)
 
+def doShell(cmnd, dir, timeout):
+    try:
+        return call(cmnd, shell=True, cwd=dir, stdin=DEVNULL, stdout=DEVNULL,
+                    stderr=DEVNULL, timeout=timeout) == 0
+    except TimeoutExpired:
+        return False
+
 def doCommand(full_cmnd, timeout, skip_first_line=False):
     out = check_output(full_cmnd, shell=True, universal_newlines=True,
                         stdin=DEVNULL, stderr=STDOUT, timeout=timeout)
@@ -380,6 +392,11 @@ def doTest(test):
                           .format(Group(1)))
                     reportDetails(test, included_files, line_num)
                     return False
+            elif Match(r'!\s*(.*\S)', line):
+                if not doShell(Group(1), cdir, timeout):
+                    print("ERROR (command failed: {})".format(Group(1)))
+                    reportDetails(test, included_files, line_num)
+                    return False
             elif Match(r'(?s)D\s*([a-zA-Z_][a-zA-Z_0-9]*)\s*"(.*)"\s*$', line):
                 defns[Group(1)] = Group(2)
             else: